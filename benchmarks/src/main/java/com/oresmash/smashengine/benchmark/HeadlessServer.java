@@ -0,0 +1,98 @@
+package com.oresmash.smashengine.benchmark;
+
+import com.oresmash.smashengine.SmashEngine;
+import com.oresmash.smashengine.utils.TextUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A minimal stand-in for the Paper server, so code using items and text can be benchmarked without
+ * starting one.
+ * <p>
+ * Item meta is a proxy that keeps whatever is set on it in a map and copies the map when cloned, which
+ * roughly matches the bookkeeping of the real meta classes without their NBT handling. Any other server
+ * method returns a default value.
+ */
+public final class HeadlessServer {
+    private static final Logger LOGGER = Logger.getLogger("bench");
+
+    private HeadlessServer() {
+    }
+
+    /**
+     * Installs the headless server and the engine's text utilities, once per JVM.
+     */
+    public static synchronized void install() {
+        if (SmashEngine.textUtils == null) {
+            SmashEngine.textUtils = new TextUtils();
+        }
+        if (Bukkit.getServer() != null) return;
+
+        ItemFactory itemFactory = proxy(ItemFactory.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getItemMeta" -> itemMeta(new HashMap<>());
+            case "isApplicable" -> true;
+            case "asMetaFor" -> args[0];
+            case "updateMaterial" -> args[1];
+            case "equals" -> args.length == 2 && args[0] == args[1];
+            default -> defaultValue(proxy, method, args);
+        });
+        Server server = proxy(Server.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getLogger" -> LOGGER;
+            case "getName", "getVersion", "getBukkitVersion", "getMinecraftVersion" -> "headless";
+            case "getItemFactory" -> itemFactory;
+            default -> defaultValue(proxy, method, args);
+        });
+        Bukkit.setServer(server);
+    }
+
+    private static ItemMeta itemMeta(Map<String, Object> values) {
+        return proxy(ItemMeta.class, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("clone")) {
+                return itemMeta(new HashMap<>(values));
+            }
+            if (args != null && args.length > 0 && method.getReturnType() == void.class) {
+                values.put(name, args.length == 1 ? args[0] : args.clone());
+                return null;
+            }
+            if ((args == null || args.length == 0) && values.containsKey(name)) {
+                return values.get(name);
+            }
+            return defaultValue(proxy, method, args);
+        });
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        Class<?> type = method.getReturnType();
+        return switch (method.getName()) {
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> args != null && args.length == 1 && proxy == args[0];
+            case "toString" -> "Headless " + method.getDeclaringClass().getSimpleName();
+            default -> {
+                if (type == boolean.class) yield false;
+                if (type == int.class) yield 0;
+                if (type == long.class) yield 0L;
+                if (type == double.class) yield 0D;
+                if (type == float.class) yield 0F;
+                if (type == short.class) yield (short) 0;
+                if (type == byte.class) yield (byte) 0;
+                if (type == char.class) yield (char) 0;
+                yield null;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(HeadlessServer.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
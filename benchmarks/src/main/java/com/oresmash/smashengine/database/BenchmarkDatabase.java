@@ -0,0 +1,96 @@
+package com.oresmash.smashengine.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The backends the benchmarks run against, built with the same settings as the plugin uses.
+ */
+public enum BenchmarkDatabase {
+    /**
+     * A file database in WAL mode with four readers.
+     */
+    SQLITE {
+        @Override
+        DatabaseInterface open(Path directory) throws SQLException {
+            return new SQLite("jdbc:sqlite:" + directory.resolve("bench.db"), 1000, 4, -16000, 268435456L, 64, 3, metrics());
+        }
+    },
+    /**
+     * The MySQL backend, including its Hikari pool, on an in-memory H2 database in MySQL mode.
+     */
+    H2_MYSQL {
+        @Override
+        DatabaseInterface open(Path directory) {
+            DatabaseMetrics metrics = metrics();
+            String url = "jdbc:h2:mem:bench-" + System.nanoTime()
+                    + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1;IGNORE_UNKNOWN_SETTINGS=TRUE";
+            return new MySQL(MySQL.createDataSource(url, "sa", "", "bench-primary", false, metrics),
+                    List.of(), MySQL.ReplicaStrategy.ROUND_ROBIN, 0L, 1000, 3, metrics);
+        }
+    };
+
+    static final String CREATE_TABLE = "CREATE TABLE bench_kv (id INT PRIMARY KEY, name VARCHAR(64), score BIGINT)";
+    static final String INSERT = "INSERT INTO bench_kv (id, name, score) VALUES (?, ?, ?)";
+    static final String UPDATE = "UPDATE bench_kv SET score = ? WHERE id = ?";
+    static final String SELECT_RANGE = "SELECT id, name, score FROM bench_kv WHERE id < ?";
+
+    abstract DatabaseInterface open(Path directory) throws SQLException;
+
+    /**
+     * Opens the database and fills {@code bench_kv} with rows numbered from 0.
+     *
+     * @param directory A directory for database files.
+     * @param rows The number of rows to insert.
+     * @return The connected database.
+     */
+    DatabaseInterface openWithRows(Path directory, int rows) throws SQLException {
+        DatabaseInterface database = open(directory);
+        database.connect();
+        database.prepared(CREATE_TABLE, ps -> {
+        });
+
+        Collection<DatabaseInterface.PreparedStatementConsumer> inserts = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            int id = i;
+            inserts.add(ps -> {
+                ps.setInt(1, id);
+                ps.setString(2, "player-" + id);
+                ps.setLong(3, id * 31L);
+            });
+        }
+        database.batch(Map.of(INSERT, inserts));
+        return database;
+    }
+
+    static Path createDirectory() {
+        try {
+            return Files.createTempDirectory("smashengine-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static DatabaseMetrics metrics() {
+        // Slow query logging would dominate the results, so the threshold is effectively disabled
+        return new DatabaseMetrics("bench", Logger.getLogger("bench"), Long.MAX_VALUE / 1_000_000L);
+    }
+}
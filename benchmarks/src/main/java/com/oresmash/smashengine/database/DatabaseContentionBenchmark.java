@@ -0,0 +1,96 @@
+package com.oresmash.smashengine.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs point reads and writes from several threads at once, to show how the reader pool of SQLite and
+ * the Hikari pool of MySQL hold up under contention. Scores are operations per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseContentionBenchmark {
+    private static final int TABLE_ROWS = 10_000;
+    private static final String SELECT_ONE = "SELECT id, name, score FROM bench_kv WHERE id = ?";
+
+    @Param({"SQLITE", "H2_MYSQL"})
+    public BenchmarkDatabase backend;
+
+    private Path directory;
+    private DatabaseInterface database;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        directory = BenchmarkDatabase.createDirectory();
+        database = backend.openWithRows(directory, TABLE_ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.disconnect();
+        BenchmarkDatabase.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Long> reads() {
+        return read();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void writes() {
+        write();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public List<Long> mixedReads() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedWrites() {
+        write();
+    }
+
+    private List<Long> read() {
+        int id = ThreadLocalRandom.current().nextInt(TABLE_ROWS);
+        return database.query(SELECT_ONE, ps -> ps.setInt(1, id), rs -> rs.getLong(3));
+    }
+
+    private void write() {
+        int id = ThreadLocalRandom.current().nextInt(TABLE_ROWS);
+        database.prepared(BenchmarkDatabase.UPDATE, ps -> {
+            ps.setLong(1, id * 7L);
+            ps.setInt(2, id);
+        });
+    }
+}
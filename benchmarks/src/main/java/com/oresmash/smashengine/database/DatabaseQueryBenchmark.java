@@ -0,0 +1,77 @@
+package com.oresmash.smashengine.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queries returning few and many rows, and what it costs to turn the result set into rows:
+ * generic maps from {@link DatabaseInterface#query(String, DatabaseInterface.PreparedStatementConsumer)},
+ * user types from a {@link DatabaseInterface.RowMapper}, or nothing at all when streaming.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseQueryBenchmark {
+    private static final int TABLE_ROWS = 10_000;
+
+    @Param({"SQLITE", "H2_MYSQL"})
+    public BenchmarkDatabase backend;
+
+    @Param({"10", "10000"})
+    public int resultRows;
+
+    private Path directory;
+    private DatabaseInterface database;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        directory = BenchmarkDatabase.createDirectory();
+        database = backend.openWithRows(directory, TABLE_ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.disconnect();
+        BenchmarkDatabase.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> queryMaps() {
+        return database.query(BenchmarkDatabase.SELECT_RANGE, ps -> ps.setInt(1, resultRows));
+    }
+
+    @Benchmark
+    public List<Entry> queryMapped() {
+        return database.query(BenchmarkDatabase.SELECT_RANGE, ps -> ps.setInt(1, resultRows),
+                rs -> new Entry(rs.getInt(1), rs.getString(2), rs.getLong(3)));
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) {
+        database.stream(BenchmarkDatabase.SELECT_RANGE, ps -> ps.setInt(1, resultRows), rs -> blackhole.consume(rs.getLong(3)));
+    }
+
+    public record Entry(int id, String name, long score) {
+    }
+}
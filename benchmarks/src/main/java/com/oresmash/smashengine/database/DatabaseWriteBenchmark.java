@@ -0,0 +1,104 @@
+package com.oresmash.smashengine.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing rows one statement at a time with {@link DatabaseInterface#batch(Map)} and
+ * {@link DatabaseInterface#upsert(String, List, java.util.Collection)}. Scores are rows per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseWriteBenchmark {
+    private static final int TABLE_ROWS = 10_000;
+    private static final int WRITES = 100;
+
+    @Param({"SQLITE", "H2_MYSQL"})
+    public BenchmarkDatabase backend;
+
+    private Path directory;
+    private DatabaseInterface database;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        directory = BenchmarkDatabase.createDirectory();
+        database = backend.openWithRows(directory, TABLE_ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.disconnect();
+        BenchmarkDatabase.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void prepared() {
+        for (int i = 0; i < WRITES; i++) {
+            int id = nextId();
+            database.prepared(BenchmarkDatabase.UPDATE, ps -> {
+                ps.setLong(1, id * 7L);
+                ps.setInt(2, id);
+            });
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void batch() {
+        List<DatabaseInterface.PreparedStatementConsumer> updates = new ArrayList<>(WRITES);
+        for (int i = 0; i < WRITES; i++) {
+            int id = nextId();
+            updates.add(ps -> {
+                ps.setLong(1, id * 7L);
+                ps.setInt(2, id);
+            });
+        }
+        database.batch(Map.of(BenchmarkDatabase.UPDATE, updates));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WRITES)
+    public void upsert() {
+        List<Map<String, Object>> rows = new ArrayList<>(WRITES);
+        for (int i = 0; i < WRITES; i++) {
+            int id = nextId();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", id);
+            row.put("name", "player-" + id);
+            row.put("score", id * 7L);
+            rows.add(row);
+        }
+        database.upsert("bench_kv", List.of("id"), rows);
+    }
+
+    private int nextId() {
+        next = (next + 1) % TABLE_ROWS;
+        return next;
+    }
+}
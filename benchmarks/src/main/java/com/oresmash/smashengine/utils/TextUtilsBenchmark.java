@@ -0,0 +1,89 @@
+package com.oresmash.smashengine.utils;
+
+import com.oresmash.smashengine.benchmark.HeadlessServer;
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the text paths run while building menus and scoreboards: colorizing MiniMessage texts with
+ * and without the cache, small caps and lore wrapping. Number formatting is covered by
+ * {@link TextUtilsFormatBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextUtilsBenchmark {
+    @Param({"PLAIN", "STYLED", "GRADIENT"})
+    public Input input;
+
+    private TextUtils textUtils;
+    private Component colorized;
+
+    @Setup
+    public void setup() {
+        HeadlessServer.install();
+        textUtils = new TextUtils();
+        colorized = textUtils.colorize(input.text);
+    }
+
+    @Benchmark
+    public Component colorize() {
+        return textUtils.colorize(input.text);
+    }
+
+    @Benchmark
+    public Component colorizeUncached() {
+        return textUtils.colorizeUncached(input.text);
+    }
+
+    @Benchmark
+    public String toSmallCaps() {
+        return textUtils.toSmallCaps(input.text);
+    }
+
+    @Benchmark
+    public Component smallCapsComponent() {
+        return FontTransform.SMALL_CAPS.apply(colorized);
+    }
+
+    @Benchmark
+    public List<Component> wrap() {
+        return GlyphWidths.wrap(colorized, GlyphWidths.DEFAULT_LORE_WIDTH);
+    }
+
+    @Benchmark
+    public int width() {
+        return GlyphWidths.width(colorized);
+    }
+
+    /**
+     * Texts as they appear in menu configs.
+     */
+    public enum Input {
+        PLAIN("Click to teleport to the spawn of the survival world and start playing"),
+        STYLED("<gray>Cost: <gold><bold>1,250 coins</bold></gold> <dark_gray>| <green>Click to buy</green> <gray>or <red>right-click</red> to preview"),
+        GRADIENT("<gradient:#ff5555:#5555ff>Legendary Sword of the Ancient Smiths</gradient> <gray>(<rainbow>Tier V</rainbow>)");
+
+        private final String text;
+
+        Input(String text) {
+            this.text = text;
+        }
+    }
+}
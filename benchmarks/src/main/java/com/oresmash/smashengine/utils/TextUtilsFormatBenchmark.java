@@ -0,0 +1,135 @@
+package com.oresmash.smashengine.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the number and duration formatting of {@link TextUtils} against the implementation it
+ * replaced, which built a new {@link DecimalFormat} on every call. Run through the benchmark runner,
+ * the {@code gc.alloc.rate.norm} column shows the bytes allocated per formatted value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextUtilsFormatBenchmark {
+    private static final double[] VALUES = {0.5, 12.345, 999.99, 1_234.5, 56_789.0, 1_250_000.0, 7.5e9, 3.2e13, 9.99e44};
+    private static final int[] DURATIONS = {0, 5, 59, 61, 1_441, 10_081, 525_600};
+
+    private TextUtils textUtils;
+
+    @Setup
+    public void setup() {
+        textUtils = new TextUtils();
+        for (double value : VALUES) {
+            for (int places = 0; places <= 3; places++) {
+                if (!textUtils.character(value, places).equals(Legacy.character(value, places))
+                        || !textUtils.decimal(value, places).equals(Legacy.decimal(value, places))) {
+                    throw new IllegalStateException("Formatting of " + value + " changed");
+                }
+            }
+        }
+        for (int duration : DURATIONS) {
+            if (!textUtils.time(duration).equals(Legacy.time(duration))) {
+                throw new IllegalStateException("Formatting of " + duration + " minutes changed");
+            }
+        }
+    }
+
+    @Benchmark
+    public void decimal(Blackhole blackhole) {
+        for (double value : VALUES) {
+            blackhole.consume(textUtils.decimal(value, 2));
+        }
+    }
+
+    @Benchmark
+    public void decimalLegacy(Blackhole blackhole) {
+        for (double value : VALUES) {
+            blackhole.consume(Legacy.decimal(value, 2));
+        }
+    }
+
+    @Benchmark
+    public void character(Blackhole blackhole) {
+        for (double value : VALUES) {
+            blackhole.consume(textUtils.character(value, 1));
+        }
+    }
+
+    @Benchmark
+    public void characterLegacy(Blackhole blackhole) {
+        for (double value : VALUES) {
+            blackhole.consume(Legacy.character(value, 1));
+        }
+    }
+
+    @Benchmark
+    public void time(Blackhole blackhole) {
+        for (int duration : DURATIONS) {
+            blackhole.consume(textUtils.time(duration));
+        }
+    }
+
+    @Benchmark
+    public void timeLegacy(Blackhole blackhole) {
+        for (int duration : DURATIONS) {
+            blackhole.consume(Legacy.time(duration));
+        }
+    }
+
+    /**
+     * The formatting as it was before the formatters were reused, kept as the baseline.
+     */
+    private static final class Legacy {
+        static String decimal(double value, int decimalPlaces) {
+            StringBuilder pattern = new StringBuilder("#,##0");
+            if (decimalPlaces > 0) {
+                pattern.append(".");
+                pattern.append("#".repeat(decimalPlaces));
+            }
+            return new DecimalFormat(pattern.toString()).format(value);
+        }
+
+        static String character(double value, int decimalPlaces) {
+            String[] units = {"k", "M", "B", "T", "Qd", "Qu", "Sx", "Sp", "Oc", "Nn", "Dc", "Ud", "Dd", "Td", "Qt"};
+            if (value < 1_000) {
+                return decimal(value, decimalPlaces);
+            }
+            int unitIndex = (int) (Math.log10(value) / 3) - 1;
+            unitIndex = Math.min(unitIndex, units.length - 1);
+            double unitValue = value / Math.pow(10, 3 * (unitIndex + 1));
+            return decimal(unitValue, decimalPlaces) + units[unitIndex];
+        }
+
+        static String time(Integer minutes) {
+            int weeks = minutes / 10080;
+            minutes = minutes % 10080;
+            int days = minutes / 1440;
+            minutes = minutes % 1440;
+            int hours = minutes / 60;
+            minutes = minutes % 60;
+
+            StringBuilder result = new StringBuilder();
+            if (weeks > 0) result.append(weeks).append("w");
+            if (days > 0) result.append(days).append("d");
+            if (hours > 0) result.append(hours).append("h");
+            if (minutes > 0) result.append(minutes).append("m");
+            return result.toString();
+        }
+    }
+}
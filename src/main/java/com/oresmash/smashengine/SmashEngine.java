@@ -1,16 +1,36 @@
 package com.oresmash.smashengine;
 
+import com.oresmash.smashengine.database.DatabaseCommand;
+import com.oresmash.smashengine.database.DatabaseExecutor;
+import com.oresmash.smashengine.item.SkullCache;
 import com.oresmash.smashengine.menu.MenuListener;
 import com.oresmash.smashengine.utils.TextUtils;
+import dev.rollczi.litecommands.LiteCommands;
+import dev.rollczi.litecommands.bukkit.LiteBukkitFactory;
+import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class SmashEngine extends JavaPlugin {
     public static TextUtils textUtils;
+    private LiteCommands<CommandSender> liteCommands;
 
     @Override
     public void onEnable() {
         textUtils = new TextUtils();
         getServer().getPluginManager().registerEvents(new MenuListener(), this);
+        getServer().getPluginManager().registerEvents(textUtils.getLocationCodec(), this);
+        liteCommands = LiteBukkitFactory.builder("smashengine", this)
+                .commands(new DatabaseCommand())
+                .build();
+    }
+
+    @Override
+    public void onDisable() {
+        if (liteCommands != null) {
+            liteCommands.unregister();
+        }
+        DatabaseExecutor.shutdown();
+        SkullCache.shutdown();
     }
 
 }
@@ -0,0 +1,359 @@
+package com.oresmash.smashengine.database;
+
+import com.oresmash.smashengine.database.DatabaseInterface.PreparedStatementConsumer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The parameters a {@link PreparedStatementConsumer} binds, captured by running it against a recording
+ * statement. Captured parameters can be compared, used as cache keys and applied to a real statement later.
+ * <p>
+ * Only the {@code setXxx(int, ...)} methods and {@code clearParameters()} may be used by a recorded
+ * preparer; anything else makes {@link #capture(PreparedStatementConsumer)} fail.
+ * <p>
+ * Parameters made of strings, numbers, booleans, byte arrays, SQL dates, times and timestamps and
+ * {@link java.sql.Types} codes can also be {@link #writeTo(DataOutput) written} to disk and read back.
+ */
+public final class BoundParameters {
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Map<String, Class<?>> PRIMITIVES = Map.of(
+            "boolean", boolean.class, "byte", byte.class, "short", short.class, "int", int.class,
+            "long", long.class, "float", float.class, "double", double.class);
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte BYTES = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte DATE = 11;
+    private static final byte TIME = 12;
+    private static final byte TIMESTAMP = 13;
+
+    private final Method[] setters;
+    private final Object[][] arguments;
+    private final boolean comparable;
+    private final int hashCode;
+
+    BoundParameters(Method[] setters, Object[][] arguments) {
+        this.setters = setters;
+        this.arguments = arguments;
+        this.comparable = Arrays.stream(arguments).flatMap(Arrays::stream).noneMatch(BoundParameters::isStream);
+        int hash = 1;
+        for (int i = 0; i < setters.length; i++) {
+            hash = 31 * hash + (setters[i] == null ? 0 : setters[i].getName().hashCode());
+            hash = 31 * hash + Arrays.deepHashCode(arguments[i]);
+        }
+        this.hashCode = hash;
+    }
+
+    /**
+     * Runs a preparer against a recording statement and returns the parameters it bound.
+     *
+     * @param preparer The preparer to record.
+     * @return The captured parameters.
+     * @throws SQLException If the preparer failed or used anything other than parameter setters.
+     */
+    public static BoundParameters capture(PreparedStatementConsumer preparer) throws SQLException {
+        TreeMap<Integer, Object[]> bound = new TreeMap<>();
+        Map<Integer, Method> setters = new TreeMap<>();
+        PreparedStatement recorder = (PreparedStatement) Proxy.newProxyInstance(
+                BoundParameters.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("clearParameters")) {
+                        bound.clear();
+                        setters.clear();
+                        return null;
+                    }
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                        setters.put(index, method);
+                        bound.put(index, Arrays.copyOfRange(args, 1, args.length));
+                        return null;
+                    }
+                    if (name.equals("hashCode")) return System.identityHashCode(proxy);
+                    if (name.equals("equals")) return proxy == args[0];
+                    if (name.equals("toString")) return "BoundParameters recorder";
+                    throw new SQLException("Unsupported call while recording parameters: " + name);
+                });
+        preparer.accept(recorder);
+
+        int count = bound.isEmpty() ? 0 : bound.lastKey();
+        Method[] methodArray = new Method[count];
+        Object[][] argumentArray = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            methodArray[i] = setters.get(i + 1);
+            Object[] args = bound.get(i + 1);
+            argumentArray[i] = args == null ? NO_ARGS : args;
+        }
+        return new BoundParameters(methodArray, argumentArray);
+    }
+
+    /**
+     * Binds the captured parameters to a statement.
+     *
+     * @param statement The statement to bind to.
+     * @throws SQLException If a parameter could not be bound.
+     */
+    public void applyTo(PreparedStatement statement) throws SQLException {
+        for (int i = 0; i < setters.length; i++) {
+            if (setters[i] == null) continue;
+            Object[] args = new Object[arguments[i].length + 1];
+            args[0] = i + 1;
+            System.arraycopy(arguments[i], 0, args, 1, arguments[i].length);
+            try {
+                setters[i].invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException sqlException) throw sqlException;
+                throw new SQLException("Unable to bind parameter " + (i + 1), e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new SQLException("Unable to bind parameter " + (i + 1), e);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the parameters are plain values. Streams, readers and LOBs can only be read once,
+     * so parameters containing them are neither comparable nor replayable.
+     *
+     * @return Whether the parameters are plain values.
+     */
+    public boolean isComparable() {
+        return comparable;
+    }
+
+    /**
+     * Returns the number of parameter positions, including positions that were never bound.
+     *
+     * @return The parameter count.
+     */
+    public int size() {
+        return setters.length;
+    }
+
+    /**
+     * Writes the parameters, so that {@link #readFrom(DataInput)} can restore them in another process.
+     *
+     * @param out The output to write to.
+     * @throws NotSerializableException If a parameter has a type that cannot be written.
+     * @throws IOException If writing failed.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeShort(setters.length);
+        for (int i = 0; i < setters.length; i++) {
+            Method setter = setters[i];
+            if (setter == null) {
+                out.writeUTF("");
+                continue;
+            }
+            out.writeUTF(setter.getName());
+            Class<?>[] types = setter.getParameterTypes();
+            out.writeByte(types.length - 1);
+            for (int j = 1; j < types.length; j++) {
+                out.writeUTF(types[j].getName());
+            }
+            for (Object value : arguments[i]) {
+                writeValue(out, value);
+            }
+        }
+    }
+
+    /**
+     * Reads parameters written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The input to read from.
+     * @return The parameters.
+     * @throws IOException If reading failed or the data does not describe parameters.
+     */
+    public static BoundParameters readFrom(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        Method[] setters = new Method[count];
+        Object[][] arguments = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            if (name.isEmpty()) {
+                arguments[i] = NO_ARGS;
+                continue;
+            }
+            int arity = in.readUnsignedByte();
+            Class<?>[] types = new Class<?>[arity + 1];
+            types[0] = int.class;
+            for (int j = 1; j <= arity; j++) {
+                types[j] = resolve(in.readUTF());
+            }
+            try {
+                setters[i] = PreparedStatement.class.getMethod(name, types);
+            } catch (NoSuchMethodException e) {
+                throw new IOException("Unknown parameter setter " + name, e);
+            }
+            Object[] args = new Object[arity];
+            for (int j = 0; j < arity; j++) {
+                args[j] = readValue(in);
+            }
+            arguments[i] = args;
+        }
+        return new BoundParameters(setters, arguments);
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8); // writeUTF is limited to 64 KiB
+            out.writeByte(STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Integer number) {
+            out.writeByte(INT);
+            out.writeInt(number);
+        } else if (value instanceof Long number) {
+            out.writeByte(LONG);
+            out.writeLong(number);
+        } else if (value instanceof Double number) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(number);
+        } else if (value instanceof Float number) {
+            out.writeByte(FLOAT);
+            out.writeFloat(number);
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(bool);
+        } else if (value instanceof Short number) {
+            out.writeByte(SHORT);
+            out.writeShort(number);
+        } else if (value instanceof Byte number) {
+            out.writeByte(BYTE);
+            out.writeByte(number);
+        } else if (value instanceof byte[] bytes) {
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof BigDecimal decimal) {
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(decimal.scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value instanceof Timestamp timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof Date date) {
+            out.writeByte(DATE);
+            out.writeLong(date.getTime());
+        } else if (value instanceof Time time) {
+            out.writeByte(TIME);
+            out.writeLong(time.getTime());
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BYTES:
+                return readBytes(in);
+            case BIG_DECIMAL:
+                int scale = in.readInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case DATE:
+                return new Date(in.readLong());
+            case TIME:
+                return new Time(in.readLong());
+            default:
+                throw new IOException("Unknown parameter type " + type);
+        }
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Class<?> resolve(String name) throws IOException {
+        Class<?> primitive = PRIMITIVES.get(name);
+        if (primitive != null) return primitive;
+        try {
+            return Class.forName(name, false, BoundParameters.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown parameter type " + name, e);
+        }
+    }
+
+    private static boolean isStream(Object value) {
+        return value instanceof InputStream || value instanceof Reader || value instanceof Blob || value instanceof Clob;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BoundParameters other) || hashCode != other.hashCode || setters.length != other.setters.length) {
+            return false;
+        }
+        for (int i = 0; i < setters.length; i++) {
+            String name = setters[i] == null ? null : setters[i].getName();
+            String otherName = other.setters[i] == null ? null : other.setters[i].getName();
+            if (!Objects.equals(name, otherName) || !Arrays.deepEquals(arguments[i], other.arguments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,101 @@
+package com.oresmash.smashengine.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The tables a caller wrote recently, so that its own reads can avoid replicas that may not have the
+ * writes yet.
+ * <p>
+ * Every thread has a session of its own, and the async methods of {@link DatabaseInterface} carry the
+ * session of the calling thread over to the database thread. Work that continues on another thread in
+ * any other way can take a session along with {@link #wrap(Runnable)} or {@link #wrap(Supplier)}, and
+ * callers that are not tied to a thread, like a player across several tasks, can keep one from
+ * {@link #create()} and wrap their work with it.
+ */
+public final class ConsistencySession {
+    private static final ThreadLocal<ConsistencySession> THREAD = ThreadLocal.withInitial(ConsistencySession::new);
+    private static final ThreadLocal<ConsistencySession> BOUND = new ThreadLocal<>();
+    private static final Map<String, String> WRITE_TABLES = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private ConsistencySession() {
+    }
+
+    /**
+     * @return A new, empty session.
+     */
+    public static ConsistencySession create() {
+        return new ConsistencySession();
+    }
+
+    /**
+     * @return The session bound by {@link #wrap(Runnable)}, or else the session of the current thread.
+     */
+    public static ConsistencySession current() {
+        ConsistencySession bound = BOUND.get();
+        return bound != null ? bound : THREAD.get();
+    }
+
+    /**
+     * @return A task that runs in this session, on whichever thread it is run.
+     */
+    public Runnable wrap(Runnable task) {
+        return () -> call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return A task that runs in this session, on whichever thread it is run.
+     */
+    public <T> Supplier<T> wrap(Supplier<T> task) {
+        return () -> call(task);
+    }
+
+    private <T> T call(Supplier<T> task) {
+        ConsistencySession previous = BOUND.get();
+        BOUND.set(this);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                BOUND.remove();
+            } else {
+                BOUND.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Records a write of the table a statement writes, or of an unknown table if the statement is null or
+     * its table cannot be determined.
+     *
+     * @param nanoTime When the write became visible on the primary, may lie in the future for deferred writes.
+     */
+    void recordWrite(String statement, long nanoTime) {
+        String table = statement == null
+                ? QueryCache.UNKNOWN_TABLE
+                : WRITE_TABLES.computeIfAbsent(statement, QueryCache::writeTable);
+        lastWrites.merge(table, nanoTime, Math::max);
+    }
+
+    /**
+     * @return Whether any of the tables, or an unknown table, was written after the given time.
+     */
+    boolean wroteAfter(String[] tables, long nanoTime) {
+        if (lastWrites.isEmpty()) return false;
+        if (isAfter(lastWrites.get(QueryCache.UNKNOWN_TABLE), nanoTime)) return true;
+        for (String table : tables) {
+            if (isAfter(lastWrites.get(table), nanoTime)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isAfter(Long writtenAt, long nanoTime) {
+        return writtenAt != null && writtenAt - nanoTime > 0;
+    }
+}
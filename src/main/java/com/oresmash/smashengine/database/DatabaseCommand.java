@@ -0,0 +1,104 @@
+package com.oresmash.smashengine.database;
+
+import dev.rollczi.litecommands.annotations.command.Command;
+import dev.rollczi.litecommands.annotations.context.Context;
+import dev.rollczi.litecommands.annotations.execute.Execute;
+import dev.rollczi.litecommands.annotations.optional.OptionalArg;
+import dev.rollczi.litecommands.annotations.permission.Permission;
+import org.bukkit.command.CommandSender;
+
+import java.util.Collection;
+import java.util.List;
+
+import static com.oresmash.smashengine.SmashEngine.textUtils;
+
+/**
+ * Shows the {@link DatabaseMetrics} of all databases opened through the engine.
+ * <p>
+ * Lines with counters, statements or arguments in them are never the same twice, so they are colorized
+ * without the cache of {@link com.oresmash.smashengine.utils.TextUtils#colorize(String)}.
+ */
+@Command(name = "smashdb")
+@Permission("smashengine.database")
+public class DatabaseCommand {
+    private static final int TOP_STATEMENTS = 10;
+
+    @Execute(name = "stats")
+    void stats(@Context CommandSender sender, @OptionalArg("database") String database) {
+        for (DatabaseMetrics metrics : select(sender, database)) {
+            sender.sendMessage(textUtils.colorize("<gold>" + metrics.getName() + " <gray>- top statements by total time"));
+            List<DatabaseMetrics.StatementStats> statements = metrics.getStatements();
+            for (DatabaseMetrics.StatementStats stats : statements.subList(0, Math.min(TOP_STATEMENTS, statements.size()))) {
+                LatencyHistogram latency = stats.getLatency();
+                sender.sendMessage(textUtils.colorizeUncached(String.format(
+                        "<white>%,d<gray>x avg <white>%.2fms <gray>p50 <white>%.2fms <gray>p99 <white>%.2fms <gray>max <white>%.2fms <gray>rows <white>%,d <gray>errors <red>%,d",
+                        latency.count(), latency.averageMillis(), latency.percentileMillis(0.5), latency.percentileMillis(0.99),
+                        latency.maxNanos() / 1_000_000D, stats.getRows(), stats.getErrors())));
+                sender.sendMessage(textUtils.colorizeUncached("  <dark_gray>" + escape(stats.getSql())));
+            }
+        }
+    }
+
+    @Execute(name = "pool")
+    void pool(@Context CommandSender sender, @OptionalArg("database") String database) {
+        for (DatabaseMetrics metrics : select(sender, database)) {
+            LatencyHistogram acquire = metrics.getConnectionAcquire();
+            sender.sendMessage(textUtils.colorizeUncached(String.format(
+                    "<gold>%s <gray>connection wait avg <white>%.2fms <gray>p99 <white>%.2fms <gray>timeouts <red>%,d",
+                    metrics.getName(), acquire.averageMillis(), acquire.percentileMillis(0.99), metrics.getConnectionTimeouts())));
+            for (DatabaseMetrics.PoolSnapshot pool : metrics.getPools()) {
+                sender.sendMessage(textUtils.colorizeUncached(String.format(
+                        "  <white>%s <gray>active <white>%d <gray>idle <white>%d <gray>pending <white>%d <gray>total <white>%d/%d",
+                        pool.name(), pool.active(), pool.idle(), pool.pending(), pool.total(), pool.max())));
+            }
+            WriteSpool.Stats spool = metrics.getSpool();
+            if (spool != null) {
+                sender.sendMessage(textUtils.colorizeUncached(String.format(
+                        "  <white>spool %s <gray>pending <white>%,d <gray>used <white>%,d/%,d KiB <gray>spooled <white>%,d <gray>replayed <white>%,d <gray>rejected <red>%,d <gray>dead-lettered <red>%,d",
+                        spool.healthy() ? "<green>healthy" : "<red>database down", spool.pending(), spool.usedBytes() / 1024,
+                        spool.capacityBytes() / 1024, spool.spooled(), spool.drained(), spool.rejected(), spool.deadLettered())));
+            }
+            StatementCache.Stats statementCache = metrics.getStatementCache();
+            if (statementCache != null) {
+                sender.sendMessage(textUtils.colorizeUncached(String.format(
+                        "  <white>statement cache <gray>hits <white>%,d <gray>misses <white>%,d <gray>hit rate <white>%.1f%% <gray>evictions <white>%,d <gray>cached <white>%,d",
+                        statementCache.hits(), statementCache.misses(), statementCache.hitRate() * 100,
+                        statementCache.evictions(), statementCache.size())));
+            }
+        }
+    }
+
+    @Execute(name = "slow")
+    void slow(@Context CommandSender sender, @OptionalArg("database") String database) {
+        for (DatabaseMetrics metrics : select(sender, database)) {
+            sender.sendMessage(textUtils.colorize("<gold>" + metrics.getName() + " <gray>- recent slow queries"));
+            for (DatabaseMetrics.SlowQuery slowQuery : metrics.getSlowQueries()) {
+                sender.sendMessage(textUtils.colorizeUncached(String.format("  <red>%.1fms <dark_gray>%s", slowQuery.millis(), escape(slowQuery.sql()))));
+            }
+        }
+    }
+
+    @Execute(name = "reset")
+    void reset(@Context CommandSender sender, @OptionalArg("database") String database) {
+        for (DatabaseMetrics metrics : select(sender, database)) {
+            metrics.reset();
+            sender.sendMessage(textUtils.colorize("<gray>Reset the metrics of <gold>" + metrics.getName()));
+        }
+    }
+
+    private Collection<DatabaseMetrics> select(CommandSender sender, String database) {
+        if (database == null) {
+            return DatabaseMetrics.all();
+        }
+        DatabaseMetrics metrics = DatabaseMetrics.get(database);
+        if (metrics == null) {
+            sender.sendMessage(textUtils.colorizeUncached("<red>No open database named " + escape(database)));
+            return List.of();
+        }
+        return List.of(metrics);
+    }
+
+    private String escape(String text) {
+        return text.replace("<", "\\<");
+    }
+}
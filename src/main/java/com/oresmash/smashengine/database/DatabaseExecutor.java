@@ -0,0 +1,159 @@
+package com.oresmash.smashengine.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executor owned by the engine on which all asynchronous database work runs.
+ * <p>
+ * On Java 21+ tasks run on virtual threads, with a semaphore bounding how many of them
+ * may talk to the database at once. On older runtimes a fixed-size platform thread pool
+ * with a bounded queue is used instead.
+ */
+public final class DatabaseExecutor {
+    private static final int MAX_CONCURRENCY = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    private static ExecutorService executor;
+
+    private DatabaseExecutor() {
+    }
+
+    /**
+     * Returns the shared database executor, creating it if needed.
+     *
+     * @return The database executor.
+     */
+    public static synchronized Executor get() {
+        if (executor == null || executor.isShutdown()) {
+            executor = create();
+        }
+        return executor;
+    }
+
+    /**
+     * Returns an executor that runs tasks on the Bukkit main thread. Tasks submitted from the
+     * main thread run immediately, everything else is scheduled for the next tick.
+     *
+     * @param plugin The plugin to schedule the tasks for.
+     * @return The main thread executor.
+     */
+    public static Executor mainThread(Plugin plugin) {
+        return task -> {
+            if (Bukkit.isPrimaryThread()) {
+                task.run();
+            } else {
+                Bukkit.getScheduler().runTask(plugin, task);
+            }
+        };
+    }
+
+    /**
+     * Stops accepting new tasks and waits for running ones to finish.
+     */
+    public static synchronized void shutdown() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    private static ExecutorService create() {
+        ExecutorService virtual = createVirtual();
+        if (virtual != null) {
+            return new BoundedExecutorService(virtual, MAX_CONCURRENCY);
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "SmashEngine Database #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY), factory);
+    }
+
+    private static ExecutorService createVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null; // Virtual threads are not available before Java 21
+        }
+    }
+
+    /**
+     * Limits the number of tasks of a virtual thread executor that run at the same time.
+     * Waiting tasks park their virtual thread, which costs next to nothing.
+     */
+    private static final class BoundedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutorService(ExecutorService delegate, int maxConcurrency) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrency, true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
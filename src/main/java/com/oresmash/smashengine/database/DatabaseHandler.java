@@ -1,17 +1,50 @@
 package com.oresmash.smashengine.database;
 
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public abstract class DatabaseHandler implements DatabaseInterface {
+    private final JavaPlugin plugin;
     private final DatabaseInterface databaseInterface;
-    private final String dbType;
+    private final WriteBehindQueue writeBehindQueue;
+    private final long writeBehindNanos;
+    private final QueryCache queryCache;
 
     public DatabaseHandler(JavaPlugin plugin) {
+        this.plugin = plugin;
         this.databaseInterface = DatabaseInterface.initializeFromConfig(plugin);
-        this.dbType = plugin.getConfig().getString("database.type");
+
+        ConfigurationSection writeBehind = plugin.getConfig().getConfigurationSection("database.write-behind");
+        if (writeBehind != null && writeBehind.getBoolean("enabled", false)) {
+            long flushInterval = writeBehind.getLong("flush-interval", 1000L);
+            this.writeBehindQueue = new WriteBehindQueue(
+                    this::write,
+                    writeBehind.getInt("batch-size", 500),
+                    flushInterval,
+                    plugin.getLogger()
+            );
+            this.writeBehindNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+        } else {
+            this.writeBehindQueue = null;
+            this.writeBehindNanos = 0L;
+        }
+
+        ConfigurationSection cache = plugin.getConfig().getConfigurationSection("database.cache");
+        if (cache != null && cache.getBoolean("enabled", false)) {
+            this.queryCache = new QueryCache(cache.getLong("max-size", 10_000L), cache.getLong("ttl", 60_000L));
+            databaseInterface.onDeferredWrite(queryCache::invalidate);
+        } else {
+            this.queryCache = null;
+        }
     }
 
     @Override
@@ -21,7 +54,13 @@ public abstract class DatabaseHandler implements DatabaseInterface {
 
     @Override
     public void disconnect() {
-        databaseInterface.disconnect();
+        try {
+            if (writeBehindQueue != null) {
+                writeBehindQueue.close();
+            }
+        } finally {
+            databaseInterface.disconnect();
+        }
     }
 
     @Override
@@ -29,17 +68,132 @@ public abstract class DatabaseHandler implements DatabaseInterface {
         return databaseInterface.isConnected();
     }
 
+    @Override
+    public DatabaseMetrics getMetrics() {
+        return databaseInterface.getMetrics();
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return databaseInterface.getDialect();
+    }
+
+    @Override
+    public void onDeferredWrite(Consumer<String> listener) {
+        databaseInterface.onDeferredWrite(listener);
+    }
+
+    /**
+     * Executes a write statement. When {@code database.write-behind.enabled} is set, the statement is
+     * queued and written later in a batch instead, see {@link WriteBehindQueue}. The preparer then runs on
+     * another thread, so it must only capture values that no longer change. The query cache is invalidated
+     * both when the statement is queued and once its batch was committed, so results read in between are
+     * not served afterwards. The write is recorded in the caller's {@link ConsistencySession} as if it was
+     * written one flush interval later, which is when its batch is expected to be committed.
+     */
     @Override
     public void prepared(String query, PreparedStatementConsumer preparer) throws DatabaseException {
-        databaseInterface.prepared(query, preparer);
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueue(query, preparer);
+            ConsistencySession.current().recordWrite(query, System.nanoTime() + writeBehindNanos);
+        } else {
+            databaseInterface.prepared(query, preparer);
+        }
+        if (queryCache != null) {
+            queryCache.invalidate(query);
+        }
+    }
+
+    @Override
+    public void stream(String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws DatabaseException {
+        databaseInterface.stream(query, preparer, consumer);
     }
 
+    /**
+     * Executes statements in a single batch. Statements still queued by the write-behind queue are written
+     * first, so the batch never overtakes earlier writes.
+     */
+    @Override
+    public void batch(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        flushWrites();
+        write(statements);
+    }
+
+    private void write(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        try {
+            databaseInterface.batch(statements);
+        } finally {
+            if (queryCache != null) {
+                statements.keySet().forEach(queryCache::invalidate);
+            }
+        }
+    }
+
+    /**
+     * Runs a transaction. Statements still queued by the write-behind queue are written first, so the
+     * transaction sees them, and the query cache is invalidated for every statement it executed.
+     */
+    @Override
+    public <T> T transaction(Transaction.Isolation isolation, TransactionCallback<T> callback) throws DatabaseException {
+        flushWrites();
+        Set<String> writes = new LinkedHashSet<>();
+        try {
+            return databaseInterface.transaction(isolation, Transaction.recordingWrites(writes, callback));
+        } finally {
+            if (queryCache != null) {
+                writes.forEach(queryCache::invalidate);
+            }
+        }
+    }
+
+    /**
+     * Writes all statements queued by the write-behind queue, if it is enabled.
+     *
+     * @throws DatabaseException If the batch failed.
+     */
+    public void flushWrites() throws DatabaseException {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.flush();
+        }
+    }
+
+    /**
+     * Executes a query. When {@code database.cache.enabled} is set, results are served from the
+     * {@link QueryCache}.
+     */
     @Override
     public List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer) throws DatabaseException {
+        if (queryCache != null) {
+            return queryCache.query(query, preparer, () -> databaseInterface.query(query, preparer));
+        }
         return databaseInterface.query(query, preparer);
     }
 
+    /**
+     * Returns the statistics of the query cache.
+     *
+     * @return The statistics, or null if {@code database.cache.enabled} is not set.
+     */
+    public QueryCache.Stats getCacheStats() {
+        return queryCache == null ? null : queryCache.stats();
+    }
+
+    /**
+     * Returns an executor running tasks on the main thread, to hand async results back to Bukkit, e.g.
+     * {@code queryAsync(...).thenAcceptAsync(rows -> ..., mainThread())}.
+     *
+     * @return The main thread executor of the owning plugin.
+     */
+    protected Executor mainThread() {
+        return DatabaseExecutor.mainThread(plugin);
+    }
+
+    /**
+     * @deprecated Use {@link #upsert(String, List, Collection)} or {@link #getDialect()} instead of
+     * writing separate statements per database.
+     */
+    @Deprecated
     protected boolean isMySQL() {
-        return "MySQL".equalsIgnoreCase(dbType);
+        return getDialect() == SqlDialect.MYSQL;
     }
 }
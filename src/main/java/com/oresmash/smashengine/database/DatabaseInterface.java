@@ -4,23 +4,255 @@ import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface DatabaseInterface {
+    /**
+     * The most rows a single statement of {@link #upsert(String, List, Collection)} inserts.
+     */
+    int MAX_UPSERT_ROWS = 1_000;
+
+    /**
+     * The estimated bytes of values above which {@link #upsert(String, List, Collection)} starts a new statement.
+     */
+    int MAX_UPSERT_BYTES = 1 << 20;
+
     void connect() throws DatabaseException;
     void disconnect();
     boolean isConnected();
+
+    /**
+     * Returns the latency, row and error statistics of this database.
+     *
+     * @return The metrics.
+     */
+    DatabaseMetrics getMetrics();
+
+    /**
+     * Returns the SQL flavour of this database, for statements that cannot be written portably.
+     *
+     * @return The dialect.
+     */
+    SqlDialect getDialect();
+
+    /**
+     * Registers a listener notified of writes that the database executes later on its own, such as
+     * spooled writes replayed after an outage. Databases that never defer writes ignore the listener.
+     *
+     * @param listener Called with the statement of every deferred write once it was committed.
+     */
+    default void onDeferredWrite(Consumer<String> listener) {
+    }
+
     void prepared(String query, PreparedStatementConsumer preparer) throws DatabaseException;
     List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer) throws DatabaseException;
 
+    /**
+     * Executes a query and maps every row straight into a user type, without building intermediate maps.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param mapper Maps the current row of the result set.
+     * @return The mapped rows.
+     * @throws DatabaseException If the query or the mapper failed.
+     */
+    default <T> List<T> query(String query, PreparedStatementConsumer preparer, RowMapper<T> mapper) throws DatabaseException {
+        List<T> results = new ArrayList<>();
+        stream(query, preparer, rs -> results.add(mapper.map(rs)));
+        return results;
+    }
+
+    /**
+     * Executes a query and hands every row to the consumer while the result set is being read, so
+     * memory use stays constant no matter how many rows are returned. Rows are fetched from the
+     * database in chunks of {@code database.fetch-size} rows.
+     * <p>
+     * The result set is only valid for the duration of the callback and must not be advanced by it.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param consumer Called once per row, with the result set positioned on that row.
+     * @throws DatabaseException If the query or the consumer failed.
+     */
+    void stream(String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws DatabaseException;
+
+    /**
+     * Executes several statements with JDBC batching inside a single transaction. Every preparer
+     * registered for a statement becomes one entry of that statement's batch. Statements run in
+     * the iteration order of the map.
+     *
+     * @param statements The preparers to batch, grouped by statement.
+     * @throws DatabaseException If the batch failed, in which case nothing is committed.
+     */
+    void batch(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException;
+
+    /**
+     * Inserts rows, or updates the non-key columns of rows whose key already exists. Rows are written with
+     * multi-row statements of the dialect, all in a single {@link #batch(Map) batch}. A statement binds as
+     * many rows as the driver allows, but at most {@value #MAX_UPSERT_ROWS} rows and about
+     * {@value #MAX_UPSERT_BYTES} bytes of values, so that wide or BLOB rows stay below the packet limit
+     * of the server ({@code max_allowed_packet} for MySQL).
+     * <p>
+     * Every row must contain the same columns, which are taken from the first row.
+     *
+     * @param table The table to write to.
+     * @param keyColumns The columns of the primary key or unique index identifying a row.
+     * @param rows The rows to write, mapping column names to values.
+     * @throws DatabaseException If the batch failed, in which case nothing is written.
+     */
+    default void upsert(String table, List<String> keyColumns, Collection<? extends Map<String, ?>> rows) throws DatabaseException {
+        if (rows.isEmpty()) return;
+        List<String> columns = List.copyOf(rows.iterator().next().keySet());
+        if (keyColumns.isEmpty() || !columns.containsAll(keyColumns)) {
+            throw new IllegalArgumentException("Rows must contain all key columns " + keyColumns);
+        }
+
+        SqlDialect dialect = getDialect();
+        int rowsPerStatement = Math.max(1, Math.min(MAX_UPSERT_ROWS, dialect.getMaxParameters() / columns.size()));
+        Map<String, List<PreparedStatementConsumer>> statements = new LinkedHashMap<>();
+        List<Object> values = new ArrayList<>(Math.min(rows.size(), rowsPerStatement) * columns.size());
+        long bytes = 0;
+
+        for (Map<String, ?> row : rows) {
+            if (row.size() != columns.size()) {
+                throw new IllegalArgumentException("Every row must contain the columns " + columns);
+            }
+            for (String column : columns) {
+                Object value = row.get(column);
+                if (value == null && !row.containsKey(column)) {
+                    throw new IllegalArgumentException("Every row must contain the columns " + columns);
+                }
+                values.add(value);
+                bytes += estimateSize(value);
+            }
+
+            if (values.size() == rowsPerStatement * columns.size() || bytes >= MAX_UPSERT_BYTES) {
+                addUpsert(statements, dialect, table, columns, keyColumns, values);
+                values = new ArrayList<>(values.size());
+                bytes = 0;
+            }
+        }
+        if (!values.isEmpty()) {
+            addUpsert(statements, dialect, table, columns, keyColumns, values);
+        }
+        batch(statements);
+    }
+
+    private static void addUpsert(Map<String, List<PreparedStatementConsumer>> statements, SqlDialect dialect,
+                                  String table, List<String> columns, List<String> keyColumns, List<Object> values) {
+        Object[] chunk = values.toArray();
+        statements.computeIfAbsent(dialect.upsert(table, columns, keyColumns, chunk.length / columns.size()), sql -> new ArrayList<>())
+                .add(ps -> {
+                    for (int i = 0; i < chunk.length; i++) {
+                        ps.setObject(i + 1, chunk[i]);
+                    }
+                });
+    }
+
+    /**
+     * Estimates the bytes a value takes in a statement, erring on the large side for text.
+     */
+    private static long estimateSize(Object value) {
+        if (value instanceof byte[] bytes) return bytes.length;
+        if (value instanceof CharSequence text) return text.length() * 3L;
+        return 16;
+    }
+
+    /**
+     * Runs several statements on one connection in a single transaction, committed once the callback
+     * returns and rolled back if it throws. Deadlocks and lock timeouts roll back and run the callback
+     * again, up to {@code database.transaction.max-retries} times.
+     *
+     * @param isolation The isolation level of the transaction.
+     * @param callback The unit of work.
+     * @return The result of the callback.
+     * @throws DatabaseException If the transaction failed and was rolled back.
+     */
+    <T> T transaction(Transaction.Isolation isolation, TransactionCallback<T> callback) throws DatabaseException;
+
+    /**
+     * Runs several statements in a single transaction with the default isolation level of the database.
+     *
+     * @param callback The unit of work.
+     * @return The result of the callback.
+     * @throws DatabaseException If the transaction failed and was rolled back.
+     * @see #transaction(Transaction.Isolation, TransactionCallback)
+     */
+    default <T> T transaction(TransactionCallback<T> callback) throws DatabaseException {
+        return transaction(Transaction.Isolation.DEFAULT, callback);
+    }
+
+    /**
+     * Executes {@link #transaction(TransactionCallback)} on the {@link DatabaseExecutor}.
+     *
+     * @param callback The unit of work, run on the database thread.
+     * @return A future completed with the result of the callback.
+     */
+    default <T> CompletableFuture<T> transactionAsync(TransactionCallback<T> callback) {
+        return CompletableFuture.supplyAsync(ConsistencySession.current().wrap(() -> transaction(callback)), DatabaseExecutor.get());
+    }
+
+    /**
+     * Executes {@link #prepared(String, PreparedStatementConsumer)} on the {@link DatabaseExecutor}.
+     *
+     * @param query The statement to execute.
+     * @param preparer Binds the statement parameters.
+     * @return A future completed once the statement has been executed, or exceptionally with a {@link DatabaseException}.
+     */
+    default CompletableFuture<Void> preparedAsync(String query, PreparedStatementConsumer preparer) {
+        return CompletableFuture.runAsync(ConsistencySession.current().wrap(() -> prepared(query, preparer)), DatabaseExecutor.get());
+    }
+
+    /**
+     * Executes {@link #query(String, PreparedStatementConsumer)} on the {@link DatabaseExecutor}.
+     * Use {@link DatabaseExecutor#mainThread(org.bukkit.plugin.Plugin)} to handle the results on the main thread.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @return A future completed with the resulting rows, or exceptionally with a {@link DatabaseException}.
+     */
+    default CompletableFuture<List<Map<String, Object>>> queryAsync(String query, PreparedStatementConsumer preparer) {
+        return CompletableFuture.supplyAsync(ConsistencySession.current().wrap(() -> query(query, preparer)), DatabaseExecutor.get());
+    }
+
+    /**
+     * Executes {@link #query(String, PreparedStatementConsumer, RowMapper)} on the {@link DatabaseExecutor}.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param mapper Maps the current row of the result set, on the database thread.
+     * @return A future completed with the mapped rows.
+     */
+    default <T> CompletableFuture<List<T>> queryAsync(String query, PreparedStatementConsumer preparer, RowMapper<T> mapper) {
+        return CompletableFuture.supplyAsync(ConsistencySession.current().wrap(() -> query(query, preparer, mapper)), DatabaseExecutor.get());
+    }
+
+    /**
+     * Executes {@link #stream(String, PreparedStatementConsumer, RowConsumer)} on the {@link DatabaseExecutor}.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param consumer Called once per row, on the database thread.
+     * @return A future completed once all rows have been consumed.
+     */
+    default CompletableFuture<Void> streamAsync(String query, PreparedStatementConsumer preparer, RowConsumer consumer) {
+        return CompletableFuture.runAsync(ConsistencySession.current().wrap(() -> stream(query, preparer, consumer)), DatabaseExecutor.get());
+    }
+
     static DatabaseInterface initializeFromConfig(JavaPlugin plugin) {
         FileConfiguration config = plugin.getConfig();
         String dbType = config.getString("database.type");
 
         if ("MySQL".equalsIgnoreCase(dbType)) {
-            return MySQL.initialize(config);
+            return MySQL.initialize(config, plugin);
         } else if ("SQLite".equalsIgnoreCase(dbType)) {
             return SQLite.initialize(config, plugin);
         } else {
@@ -32,4 +264,23 @@ public interface DatabaseInterface {
     interface PreparedStatementConsumer {
         void accept(PreparedStatement preparedStatement) throws SQLException;
     }
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(ResultSet resultSet) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * A unit of work. It runs again when its transaction is retried, so it should not have side effects
+     * outside the database.
+     */
+    @FunctionalInterface
+    interface TransactionCallback<T> {
+        T run(Transaction transaction) throws SQLException;
+    }
 }
@@ -0,0 +1,341 @@
+package com.oresmash.smashengine.database;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Collects per-statement latency histograms, row and error counts, connection pool statistics and a log
+ * of slow queries for one database. Every instance is registered under its name until {@link #close()},
+ * so the {@code /smashdb} command can list all databases of the server.
+ */
+public class DatabaseMetrics {
+    private static final Map<String, DatabaseMetrics> REGISTRY = new ConcurrentHashMap<>();
+    private static final int MAX_STATEMENTS = 2_000;
+    private static final int SLOW_LOG_SIZE = 50;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String name;
+    private final Logger logger;
+    private final long slowQueryThresholdNanos;
+    private final Map<String, String> normalized = new ConcurrentHashMap<>();
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<PoolSnapshot>> pools = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Deque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+    private final LongAdder connectionTimeouts = new LongAdder();
+    private volatile Supplier<WriteSpool.Stats> spool;
+    private volatile Supplier<StatementCache.Stats> statementCache;
+
+    /**
+     * Creates and registers the metrics of a database. If metrics are already registered under the name,
+     * a number is appended, so several databases of the same plugin are all listed.
+     *
+     * @param name The name to register the metrics under, usually the owning plugin and the backend.
+     * @param logger The logger slow queries are reported to.
+     * @param slowQueryThresholdMillis The duration from which statements are logged as slow.
+     */
+    public DatabaseMetrics(String name, Logger logger, long slowQueryThresholdMillis) {
+        this.logger = logger;
+        this.slowQueryThresholdNanos = slowQueryThresholdMillis * 1_000_000L;
+        synchronized (REGISTRY) {
+            String unique = name;
+            for (int i = 2; REGISTRY.containsKey(unique); i++) {
+                unique = name + "-" + i;
+            }
+            this.name = unique;
+            REGISTRY.put(unique, this);
+        }
+    }
+
+    /**
+     * Returns the metrics of all open databases.
+     *
+     * @return The registered metrics.
+     */
+    public static Collection<DatabaseMetrics> all() {
+        return Collections.unmodifiableCollection(REGISTRY.values());
+    }
+
+    /**
+     * Returns the metrics registered under a name.
+     *
+     * @param name The name of the database.
+     * @return The metrics, or null if no open database has that name.
+     */
+    public static DatabaseMetrics get(String name) {
+        return REGISTRY.get(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a successful statement.
+     *
+     * @param sql The statement.
+     * @param startNanos The {@link System#nanoTime()} at which the statement started.
+     * @param rows The number of rows returned or affected.
+     */
+    public void record(String sql, long startNanos, long rows) {
+        long elapsed = System.nanoTime() - startNanos;
+        StatementStats stats = stats(sql);
+        stats.latency.record(elapsed);
+        stats.rows.add(rows);
+        if (elapsed >= slowQueryThresholdNanos) {
+            logSlow(sql, elapsed);
+        }
+    }
+
+    /**
+     * Records a failed statement.
+     *
+     * @param sql The statement.
+     * @param startNanos The {@link System#nanoTime()} at which the statement started.
+     */
+    public void recordError(String sql, long startNanos) {
+        StatementStats stats = stats(sql);
+        stats.latency.record(System.nanoTime() - startNanos);
+        stats.errors.increment();
+    }
+
+    /**
+     * Registers a connection pool whose state is included in {@link #getPools()}.
+     *
+     * @param pool The name of the pool.
+     * @param snapshot Reads the current state of the pool.
+     */
+    public void registerPool(String pool, Supplier<PoolSnapshot> snapshot) {
+        pools.put(pool, snapshot);
+    }
+
+    /**
+     * Registers the write spool of the database, whose state is included in {@link #getSpool()}.
+     *
+     * @param spool Reads the current state of the spool.
+     */
+    public void registerSpool(Supplier<WriteSpool.Stats> spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Registers the statement caches of the database, whose statistics are included in {@link #getStatementCache()}.
+     *
+     * @param statementCache Reads the combined statistics of the statement caches.
+     */
+    public void registerStatementCache(Supplier<StatementCache.Stats> statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * Returns a Hikari metrics tracker factory feeding connection wait times and timeouts into these
+     * metrics and registering every pool it is used for.
+     *
+     * @return The factory to pass to {@code HikariConfig#setMetricsTrackerFactory}.
+     */
+    public MetricsTrackerFactory hikariTracker() {
+        return (poolName, poolStats) -> {
+            registerPool(poolName, () -> snapshot(poolName, poolStats));
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    connectionAcquire.record(elapsedAcquiredNanos);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    connectionTimeouts.increment();
+                }
+            };
+        };
+    }
+
+    /**
+     * Returns the statistics of all recorded statements, slowest in total first.
+     *
+     * @return The statement statistics.
+     */
+    public List<StatementStats> getStatements() {
+        List<StatementStats> list = new ArrayList<>(statements.values());
+        list.sort(Comparator.comparingLong((StatementStats stats) -> stats.latency.totalNanos()).reversed());
+        return list;
+    }
+
+    public List<PoolSnapshot> getPools() {
+        List<PoolSnapshot> snapshots = new ArrayList<>();
+        synchronized (pools) {
+            pools.values().forEach(pool -> snapshots.add(pool.get()));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the most recent slow queries, newest first.
+     *
+     * @return The slow queries.
+     */
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    /**
+     * Returns the state of the write spool.
+     *
+     * @return The state, or null if the database has no spool.
+     */
+    public WriteSpool.Stats getSpool() {
+        Supplier<WriteSpool.Stats> spool = this.spool;
+        return spool == null ? null : spool.get();
+    }
+
+    /**
+     * Returns the statistics of the statement caches.
+     *
+     * @return The statistics, or null if the database does not cache statements itself.
+     */
+    public StatementCache.Stats getStatementCache() {
+        Supplier<StatementCache.Stats> statementCache = this.statementCache;
+        return statementCache == null ? null : statementCache.get();
+    }
+
+    public LatencyHistogram getConnectionAcquire() {
+        return connectionAcquire;
+    }
+
+    public long getConnectionTimeouts() {
+        return connectionTimeouts.sum();
+    }
+
+    /**
+     * Clears all recorded statistics. Pool registrations are kept.
+     */
+    public void reset() {
+        statements.clear();
+        connectionAcquire.reset();
+        connectionTimeouts.reset();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    /**
+     * Removes these metrics from the registry.
+     */
+    public void close() {
+        REGISTRY.remove(name, this);
+    }
+
+    private StatementStats stats(String sql) {
+        String key = normalize(sql);
+        StatementStats stats = statements.get(key);
+        if (stats != null) return stats;
+        if (statements.size() >= MAX_STATEMENTS) {
+            key = "<other>"; // Statements built by concatenation would otherwise grow the map forever
+        }
+        return statements.computeIfAbsent(key, StatementStats::new);
+    }
+
+    private String normalize(String sql) {
+        String cached = normalized.get(sql);
+        if (cached != null) return cached;
+
+        String result = STRING_LITERAL.matcher(sql).replaceAll("?");
+        result = NUMBER_LITERAL.matcher(result).replaceAll("?");
+        result = IN_LIST.matcher(result).replaceAll("(?)");
+        result = WHITESPACE.matcher(result).replaceAll(" ").trim();
+        if (normalized.size() < MAX_STATEMENTS) {
+            normalized.put(sql, result);
+        }
+        return result;
+    }
+
+    private void logSlow(String sql, long elapsedNanos) {
+        SlowQuery slowQuery = new SlowQuery(normalize(sql), elapsedNanos / 1_000_000D, System.currentTimeMillis());
+        synchronized (slowQueries) {
+            slowQueries.addFirst(slowQuery);
+            if (slowQueries.size() > SLOW_LOG_SIZE) {
+                slowQueries.removeLast();
+            }
+        }
+        logger.warning(String.format("Slow query (%.1f ms): %s", slowQuery.millis(), slowQuery.sql()));
+    }
+
+    private static PoolSnapshot snapshot(String pool, PoolStats stats) {
+        return new PoolSnapshot(pool, stats.getTotalConnections(), stats.getActiveConnections(), stats.getIdleConnections(),
+                stats.getPendingThreads(), stats.getMaxConnections());
+    }
+
+    /**
+     * The statistics of one normalized statement.
+     */
+    public static final class StatementStats {
+        private final String sql;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+
+    /**
+     * The state of a connection pool at one point in time.
+     *
+     * @param name The name of the pool.
+     * @param total The number of open connections.
+     * @param active The number of connections in use.
+     * @param idle The number of connections ready to be used.
+     * @param pending The number of threads waiting for a connection.
+     * @param max The maximum size of the pool.
+     */
+    public record PoolSnapshot(String name, int total, int active, int idle, int pending, int max) {
+    }
+
+    /**
+     * A statement that took longer than the slow query threshold.
+     *
+     * @param sql The normalized statement.
+     * @param millis How long it took.
+     * @param timestamp When it finished, in epoch milliseconds.
+     */
+    public record SlowQuery(String sql, double millis, long timestamp) {
+    }
+}
@@ -0,0 +1,85 @@
+package com.oresmash.smashengine.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets. Bucket {@code i} counts
+ * durations in {@code [2^i, 2^(i+1))} microseconds, which keeps percentiles within a factor of two
+ * while recording costs a single atomic increment.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(1L, nanos / 1_000L);
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public double averageMillis() {
+        long count = count();
+        return count == 0 ? 0D : totalNanos() / 1_000_000D / count;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile.
+     *
+     * @param percentile The percentile, between 0 and 1.
+     * @return The upper bound of the bucket containing the percentile, in milliseconds.
+     */
+    public double percentileMillis(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0D;
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (1L << (i + 1)) / 1_000D;
+            }
+        }
+        return maxNanos() / 1_000_000D;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
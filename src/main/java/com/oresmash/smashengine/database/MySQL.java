@@ -2,44 +2,216 @@ package com.oresmash.smashengine.database;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
+/**
+ * MySQL backend on top of HikariCP.
+ * <p>
+ * Optionally, reads are spread over read-only replicas listed in {@code database.MySQL.replicas}, picked
+ * by {@code database.MySQL.replica-strategy}, while writes always go to the primary. After a table is
+ * written, reads of that table stay on the primary for {@code database.MySQL.read-your-writes}
+ * milliseconds so they never miss the write because of replication lag. Pinning only applies to the
+ * caller that wrote, as tracked by its {@link ConsistencySession}, so a busy table does not keep every
+ * other reader on the primary. Writes whose table cannot be determined pin all reads of that caller.
+ * Replicas give up on a connection after {@code database.MySQL.replica-connection-timeout} milliseconds,
+ * the read then falls back to the primary.
+ * <p>
+ * With {@code database.MySQL.spool.enabled}, writes from {@link #prepared(String, PreparedStatementConsumer)}
+ * and {@link #batch(Map)} are appended to a {@link WriteSpool} in the data folder instead while the database
+ * is down, or while at least {@code database.MySQL.spool.queue-depth} threads already wait for a connection,
+ * and replayed in order once the database recovers. While writes are spooled, later writes are spooled as
+ * well so they never overtake them, and transactions wait up to {@code database.MySQL.spool.drain-timeout}
+ * milliseconds for the spool to drain. Spooled writes are not visible to reads until they are replayed.
+ */
 public class MySQL implements DatabaseInterface {
     private final HikariDataSource dataSource;
+    private final List<HikariDataSource> replicas;
+    private final ReplicaStrategy replicaStrategy;
+    private final long readYourWritesNanos;
+    private final Map<String, String[]> readTables = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final int fetchSize;
+    private final int transactionRetries;
+    private final DatabaseMetrics metrics;
+    private final List<Consumer<String>> deferredWriteListeners = new CopyOnWriteArrayList<>();
+    private WriteSpool spool;
+    private int spoolQueueDepth;
+    private long spoolDrainTimeoutMillis;
 
+    /**
+     * Opens a MySQL database without a plugin. Its metrics are registered as {@code MySQL} and a write
+     * spool file is resolved against the server directory.
+     *
+     * @deprecated Use {@link #initialize(FileConfiguration, JavaPlugin)}, which names the metrics and places
+     * the spool after the plugin.
+     */
+    @Deprecated
     public static DatabaseInterface initialize(FileConfiguration config) {
-        String hostPort = config.getString("database.MySQL.host");
-        String[] parts = hostPort.split(":");
-        String host = parts[0];
-        int port = Integer.parseInt(parts[1]);
+        return initialize(config, "MySQL", Logger.getLogger("MySQL"), Path.of(""));
+    }
+
+    public static DatabaseInterface initialize(FileConfiguration config, JavaPlugin plugin) {
+        return initialize(config, plugin.getName() + "-mysql", plugin.getLogger(), plugin.getDataFolder().toPath());
+    }
+
+    private static DatabaseInterface initialize(FileConfiguration config, String name, Logger logger, Path dataFolder) {
         String database = config.getString("database.MySQL.database");
         String username = config.getString("database.MySQL.username");
         String password = config.getString("database.MySQL.password");
+        int fetchSize = config.getInt("database.fetch-size", 1000);
+        int transactionRetries = config.getInt("database.transaction.max-retries", 3);
+        DatabaseMetrics metrics = new DatabaseMetrics(name, logger, config.getLong("database.slow-query-threshold", 250L));
 
-        return new MySQL(host, database, username, password, port);
+        HikariDataSource primary = createDataSource(jdbcUrl(config.getString("database.MySQL.host"), database),
+                username, password, metrics.getName() + "-primary", false, metrics);
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        List<String> replicaHosts = config.getStringList("database.MySQL.replicas");
+        for (int i = 0; i < replicaHosts.size(); i++) {
+            HikariDataSource replica = createDataSource(jdbcUrl(replicaHosts.get(i), database),
+                    username, password, metrics.getName() + "-replica-" + (i + 1), true, metrics);
+            // Fall back to the primary quickly instead of stalling the read for the default 30 seconds
+            replica.setConnectionTimeout(config.getLong("database.MySQL.replica-connection-timeout", 1000L));
+            replicas.add(replica);
+        }
+        ReplicaStrategy strategy = ReplicaStrategy.valueOf(config.getString("database.MySQL.replica-strategy", "round-robin")
+                .toUpperCase(Locale.ROOT).replace('-', '_'));
+        long readYourWrites = config.getLong("database.MySQL.read-your-writes", 2000L);
+
+        MySQL mysql = new MySQL(primary, replicas, strategy, readYourWrites, fetchSize, transactionRetries, metrics);
+        if (config.getBoolean("database.MySQL.spool.enabled", false)) {
+            // Fail over to the spool quickly instead of stalling the caller for the default 30 seconds
+            primary.setConnectionTimeout(config.getLong("database.MySQL.spool.connection-timeout", 1000L));
+            try {
+                mysql.enableSpool(new WriteSpool(
+                        dataFolder.resolve(config.getString("database.MySQL.spool.file", "write-spool.dat")),
+                        Math.toIntExact(config.getLong("database.MySQL.spool.max-size", 64L) * 1024L * 1024L),
+                        mysql::drainSpool,
+                        logger),
+                        config.getInt("database.MySQL.spool.queue-depth", primary.getMaximumPoolSize()),
+                        config.getLong("database.MySQL.spool.drain-timeout", 10_000L));
+            } catch (IOException e) {
+                mysql.disconnect();
+                throw new DatabaseException("Unable to open the database write spool", e);
+            }
+        }
+        return mysql;
+    }
+
+    MySQL(HikariDataSource dataSource, List<HikariDataSource> replicas, ReplicaStrategy replicaStrategy,
+          long readYourWritesMillis, int fetchSize, int transactionRetries, DatabaseMetrics metrics) {
+        this.dataSource = dataSource;
+        this.replicas = List.copyOf(replicas);
+        this.replicaStrategy = replicaStrategy;
+        this.readYourWritesNanos = readYourWritesMillis * 1_000_000L;
+        this.fetchSize = fetchSize;
+        this.transactionRetries = transactionRetries;
+        this.metrics = metrics;
+    }
+
+    void enableSpool(WriteSpool spool, int queueDepth, long drainTimeoutMillis) {
+        this.spool = spool;
+        this.spoolQueueDepth = queueDepth;
+        this.spoolDrainTimeoutMillis = drainTimeoutMillis;
+        metrics.registerSpool(spool::stats);
     }
 
-    private MySQL(String host, String database, String username, String password, int port) {
+    private static String jdbcUrl(String hostPort, String database) {
+        String[] parts = hostPort.split(":");
+        String host = parts[0];
+        int port = Integer.parseInt(parts[1]);
+        return "jdbc:mysql://" + host + ":" + port + "/" + database;
+    }
+
+    static HikariDataSource createDataSource(String jdbcUrl, String username, String password, String poolName,
+                                             boolean readOnly, DatabaseMetrics metrics) {
         HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database);
+        config.setPoolName(poolName);
+        config.setMetricsTrackerFactory(metrics.hikariTracker());
+        config.setJdbcUrl(jdbcUrl);
         config.setUsername(username);
         config.setPassword(password);
+        config.setReadOnly(readOnly);
         config.addDataSourceProperty("cachePrepStmts", "true");
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("useCursorFetch", "true"); // Honour setFetchSize() in stream()
         config.setLeakDetectionThreshold(300000); // 5 minutes
         config.setMaximumPoolSize(5); // Small pool size for better concurrency
         config.setMinimumIdle(1); // Allow some idle connections
         config.setIdleTimeout(30000); // 30 seconds
         config.setMaxLifetime(1800000); // 30 minutes
         config.setConnectionTimeout(30000); // 30 seconds
-        dataSource = new HikariDataSource(config);
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Returns a connection for a read. Reads go to a replica unless there are none, or a table the query
+     * mentions was written recently by the caller. If the chosen replica is unavailable, the primary is used instead.
+     */
+    private Connection readConnection(String query) throws SQLException {
+        if (replicas.isEmpty() || readsRecentWrite(query)) {
+            return dataSource.getConnection();
+        }
+
+        try {
+            return pickReplica().getConnection();
+        } catch (SQLException e) {
+            return dataSource.getConnection();
+        }
+    }
+
+    private boolean readsRecentWrite(String query) {
+        return ConsistencySession.current().wroteAfter(
+                readTables.computeIfAbsent(query, QueryCache::identifiers),
+                System.nanoTime() - readYourWritesNanos
+        );
+    }
+
+    /**
+     * Pins the caller's reads of the table written by a statement to the primary, or all of its reads if
+     * the table is unknown. Called once the write was executed, so the window covers the replication lag.
+     */
+    private void recordWrite(String statement) {
+        if (replicas.isEmpty()) return;
+        ConsistencySession.current().recordWrite(statement, System.nanoTime());
+    }
+
+    private HikariDataSource pickReplica() {
+        if (replicaStrategy == ReplicaStrategy.ROUND_ROBIN) {
+            return replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+        }
+
+        HikariDataSource best = replicas.get(0);
+        int bestLoad = Integer.MAX_VALUE;
+        for (HikariDataSource replica : replicas) {
+            HikariPoolMXBean pool = replica.getHikariPoolMXBean();
+            int load = pool == null ? 0 : pool.getActiveConnections() + pool.getThreadsAwaitingConnection();
+            if (load < bestLoad) {
+                best = replica;
+                bestLoad = load;
+            }
+        }
+        return best;
     }
 
     @Override
@@ -55,9 +227,14 @@ public class MySQL implements DatabaseInterface {
 
     @Override
     public void disconnect() {
+        if (spool != null) {
+            spool.close();
+        }
         if (dataSource != null) {
             dataSource.close();
         }
+        replicas.forEach(HikariDataSource::close);
+        metrics.close();
     }
 
     @Override
@@ -65,43 +242,346 @@ public class MySQL implements DatabaseInterface {
         return dataSource != null && !dataSource.isClosed();
     }
 
+    @Override
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return SqlDialect.MYSQL;
+    }
+
+    @Override
+    public void onDeferredWrite(Consumer<String> listener) {
+        deferredWriteListeners.add(listener);
+    }
+
     @Override
     public void prepared(String query, PreparedStatementConsumer preparer) throws DatabaseException {
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+        if (spool != null && spooled(query, preparer)) return;
+
+        long start = System.nanoTime();
+        Connection conn;
+        try {
+            conn = dataSource.getConnection();
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            if (spool != null && isConnectionFailure(e)) {
+                spool.markUnhealthy();
+                spool.append(query, preparer);
+                return;
+            }
+            throw new DatabaseException("Error executing prepared statement", e);
+        }
+
+        try (conn; PreparedStatement stmt = conn.prepareStatement(query)) {
             preparer.accept(stmt);
-            stmt.executeUpdate();
+            metrics.record(query, start, stmt.executeUpdate());
         } catch (SQLIntegrityConstraintViolationException e) {
-            // System.out.println("Duplicate entry or constraint violation: " + e.getMessage());
+            // Duplicates are skipped on purpose, but still show up in the error count
+            metrics.recordError(query, start);
         } catch (SQLException e) {
+            metrics.recordError(query, start);
             throw new DatabaseException("Error executing prepared statement", e);
+        } finally {
+            recordWrite(query);
+        }
+    }
+
+    /**
+     * Spools a write if earlier writes are still spooled, the database is down or the pool is saturated.
+     */
+    private boolean spooled(String query, PreparedStatementConsumer preparer) {
+        if (spool.appendIfPending(query, preparer)) return true;
+        if (!shouldSpool()) return false;
+        spool.append(query, preparer);
+        return true;
+    }
+
+    private boolean spooled(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) {
+        if (spool.appendIfPending(statements)) return true;
+        if (!shouldSpool()) return false;
+        spool.append(statements);
+        return true;
+    }
+
+    /**
+     * Returns whether the database is down, or so many threads already wait for a connection that a new
+     * write would stall for longer than a few queries take. A short queue is normal under load and is
+     * served by the pool.
+     */
+    private boolean shouldSpool() {
+        if (!spool.isHealthy()) return true;
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool != null && pool.getThreadsAwaitingConnection() >= spoolQueueDepth;
+    }
+
+    /**
+     * Executes statements in a single batch. With the spool enabled, the batch is spooled like
+     * {@link #prepared(String, PreparedStatementConsumer)} writes, so it never overtakes spooled writes.
+     */
+    @Override
+    public void batch(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        if (spool != null && spooled(statements)) return;
+
+        Connection conn;
+        try {
+            conn = dataSource.getConnection();
+        } catch (SQLException e) {
+            if (spool != null && isConnectionFailure(e)) {
+                spool.markUnhealthy();
+                spool.append(statements);
+                return;
+            }
+            throw new DatabaseException("Error executing batch", e);
+        }
+
+        try (conn) {
+            conn.setAutoCommit(false);
+            try {
+                executeBatches(conn, statements);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                if (!(e instanceof BatchUpdateException) || !isConstraintViolation(e)) {
+                    throw e;
+                }
+                // Keep the semantics of prepared(): replay one by one and skip the violating rows
+                try {
+                    executeIndividually(conn, statements);
+                    conn.commit();
+                } catch (SQLException replayError) {
+                    conn.rollback();
+                    throw replayError;
+                }
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new DatabaseException("Error executing batch", e);
+        } finally {
+            statements.keySet().forEach(this::recordWrite);
+        }
+    }
+
+    /**
+     * Runs a transaction. With the spool enabled, spooled writes are replayed first, so that the
+     * transaction neither overtakes nor reads around them.
+     */
+    @Override
+    public <T> T transaction(Transaction.Isolation isolation, TransactionCallback<T> callback) throws DatabaseException {
+        if (spool != null) {
+            awaitSpool();
+        }
+        Set<String> writes = new LinkedHashSet<>();
+        try (Connection conn = dataSource.getConnection()) {
+            return Transaction.run(conn, SqlDialect.MYSQL, isolation, transactionRetries, metrics, null,
+                    Transaction.recordingWrites(writes, callback));
+        } catch (SQLException e) {
+            throw new DatabaseException("Error executing transaction", e);
+        } finally {
+            writes.forEach(this::recordWrite);
         }
     }
 
     @Override
     public List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer) throws DatabaseException {
-        try (Connection conn = dataSource.getConnection();
+        long start = System.nanoTime();
+        try (Connection conn = readConnection(query);
              PreparedStatement stmt = conn.prepareStatement(query)) {
             preparer.accept(stmt);
-            return executeQueryAndGetResults(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Map<String, Object>> rows = Row.readAll(rs);
+                metrics.record(query, start, rows.size());
+                return rows;
+            }
         } catch (SQLException e) {
+            metrics.recordError(query, start);
             throw new DatabaseException("Error executing query", e);
         }
     }
 
-    private List<Map<String, Object>> executeQueryAndGetResults(PreparedStatement stmt) throws SQLException {
-        try (ResultSet rs = stmt.executeQuery()) {
-            List<Map<String, Object>> results = new ArrayList<>();
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.put(metaData.getColumnName(i), rs.getObject(i));
+    @Override
+    public void stream(String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws DatabaseException {
+        long start = System.nanoTime();
+        try (Connection conn = readConnection(query);
+             PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(fetchSize);
+            preparer.accept(stmt);
+            long rows = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs);
+                    rows++;
+                }
+            }
+            metrics.record(query, start, rows);
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            throw new DatabaseException("Error streaming query", e);
+        }
+    }
+
+    private void executeBatches(Connection conn, Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws SQLException {
+        for (Map.Entry<String, ? extends Collection<PreparedStatementConsumer>> entry : statements.entrySet()) {
+            long start = System.nanoTime();
+            try (PreparedStatement stmt = conn.prepareStatement(entry.getKey())) {
+                for (PreparedStatementConsumer preparer : entry.getValue()) {
+                    preparer.accept(stmt);
+                    stmt.addBatch();
+                }
+                metrics.record(entry.getKey(), start, affectedRows(stmt.executeBatch()));
+            } catch (SQLException e) {
+                metrics.recordError(entry.getKey(), start);
+                throw e;
+            }
+        }
+    }
+
+    private void executeIndividually(Connection conn, Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws SQLException {
+        for (Map.Entry<String, ? extends Collection<PreparedStatementConsumer>> entry : statements.entrySet()) {
+            try (PreparedStatement stmt = conn.prepareStatement(entry.getKey())) {
+                for (PreparedStatementConsumer preparer : entry.getValue()) {
+                    long start = System.nanoTime();
+                    preparer.accept(stmt);
+                    try {
+                        metrics.record(entry.getKey(), start, stmt.executeUpdate());
+                    } catch (SQLIntegrityConstraintViolationException ignored) {
+                        // Same as prepared(), duplicates are skipped
+                        metrics.recordError(entry.getKey(), start);
+                    }
+                }
+            }
+        }
+    }
+
+    private void awaitSpool() {
+        try {
+            if (!spool.awaitDrained(spoolDrainTimeoutMillis)) {
+                throw new DatabaseException("Spooled writes are still waiting for the database");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Interrupted while waiting for spooled writes", e);
+        }
+    }
+
+    /**
+     * Replays spooled writes in a single transaction. If that fails, they are replayed one by one instead:
+     * deadlocks and lock timeouts are retried like in {@link #transaction(Transaction.Isolation, TransactionCallback)},
+     * constraint violations are skipped like in {@link #prepared(String, PreparedStatementConsumer)}, and
+     * writes failing for any other reason are moved to the dead-letter file of the spool. Replay stops at
+     * a write that still fails on a transient error, the spool retries it later. The
+     * {@link #onDeferredWrite(Consumer) listeners} are notified of every committed write.
+     */
+    private int drainSpool(List<WriteSpool.Entry> entries) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (WriteSpool.Entry entry : entries) {
+                    executeSpooled(conn, entry);
                 }
-                results.add(row);
+                conn.commit();
+                entries.forEach(this::replayed);
+                return entries.size();
+            } catch (SQLException e) {
+                conn.rollback();
+                if (isConnectionFailure(e)) throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                WriteSpool.Entry entry = entries.get(i);
+                try {
+                    replaySpooled(conn, entry);
+                    replayed(entry);
+                } catch (SQLException e) {
+                    if (isConnectionFailure(e) || Transaction.isRetryable(SqlDialect.MYSQL, e)
+                            || Thread.currentThread().isInterrupted()) {
+                        if (i == 0) throw e;
+                        if (isConnectionFailure(e)) spool.markUnhealthy();
+                        return i; // Keep the replayed writes, retry from this one
+                    }
+                    if (!(e instanceof SQLIntegrityConstraintViolationException)) {
+                        spool.deadLetter(entry, e);
+                    }
+                }
+            }
+            return entries.size();
+        }
+    }
+
+    private void replaySpooled(Connection conn, WriteSpool.Entry entry) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                executeSpooled(conn, entry);
+                return;
+            } catch (SQLException e) {
+                if (attempt >= transactionRetries || !Transaction.isRetryable(SqlDialect.MYSQL, e)) {
+                    throw e;
+                }
+                Transaction.backoff(attempt);
             }
-            return results;
         }
     }
+
+    private void executeSpooled(Connection conn, WriteSpool.Entry entry) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(entry.sql())) {
+            entry.parameters().applyTo(stmt);
+            metrics.record(entry.sql(), start, stmt.executeUpdate());
+        } catch (SQLException e) {
+            metrics.recordError(entry.sql(), start);
+            throw e;
+        } catch (RuntimeException e) {
+            // A record that cannot be bound fails on its own, so it is set aside instead of stopping the replay
+            metrics.recordError(entry.sql(), start);
+            throw new SQLException("Unable to replay spooled write", e);
+        }
+    }
+
+    private void replayed(WriteSpool.Entry entry) {
+        for (Consumer<String> listener : deferredWriteListeners) {
+            listener.accept(entry.sql());
+        }
+    }
+
+    private boolean isConnectionFailure(SQLException e) {
+        if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    private long affectedRows(int[] counts) {
+        long rows = 0;
+        for (int count : counts) {
+            if (count > 0) rows += count;
+        }
+        return rows;
+    }
+
+    private boolean isConstraintViolation(SQLException e) {
+        if (e.getCause() instanceof SQLIntegrityConstraintViolationException) {
+            return true;
+        }
+        return e.getSQLState() != null && e.getSQLState().startsWith("23");
+    }
+
+    /**
+     * How a replica is chosen for a read.
+     */
+    public enum ReplicaStrategy {
+        /**
+         * Cycle through the replicas in order.
+         */
+        ROUND_ROBIN,
+        /**
+         * Use the replica with the fewest active and waiting connections.
+         */
+        LEAST_BUSY
+    }
 }
@@ -0,0 +1,54 @@
+package com.oresmash.smashengine.database;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for per-player state managed by a {@link PlayerDataRepository}.
+ * <p>
+ * Setters of subclasses call {@link #markDirty(String)} with the name of the changed field, so that
+ * only changed players, and only their changed fields, are written back.
+ */
+public abstract class PlayerData {
+    private final UUID uniqueId;
+    private final Set<String> dirtyFields = ConcurrentHashMap.newKeySet();
+
+    protected PlayerData(UUID uniqueId) {
+        this.uniqueId = uniqueId;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * Marks a field as changed since the last save.
+     *
+     * @param field The name of the field.
+     */
+    protected void markDirty(String field) {
+        dirtyFields.add(field);
+    }
+
+    public boolean isDirty() {
+        return !dirtyFields.isEmpty();
+    }
+
+    /**
+     * Returns the fields changed since the last save.
+     *
+     * @return A copy of the changed field names.
+     */
+    public Set<String> getDirtyFields() {
+        return Set.copyOf(dirtyFields);
+    }
+
+    void clearDirty(Set<String> fields) {
+        dirtyFields.removeAll(fields);
+    }
+
+    void restoreDirty(Set<String> fields) {
+        dirtyFields.addAll(fields);
+    }
+}
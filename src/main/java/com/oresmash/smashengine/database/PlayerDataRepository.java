@@ -0,0 +1,221 @@
+package com.oresmash.smashengine.database;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Keeps the data of online players in memory and writes back only what changed.
+ * <p>
+ * Data is loaded on the database thread while the player logs in ({@link AsyncPlayerPreLoginEvent}),
+ * so it is available from the moment they join. Changed players are saved in one batch every flush
+ * interval, and once more when they quit. A player rejoining while any save of their data is still
+ * running waits for it before their data is loaded again. Data of players who quit is kept until it
+ * was saved successfully: failed saves are retried by the next flush, and a player rejoining before
+ * that gets the unsaved data back instead of the outdated stored one. Loads and saves share a
+ * {@link ConsistencySession}, so a load never reads a replica that has not caught up with a save yet.
+ *
+ * @param <T> The type of the player data.
+ */
+public abstract class PlayerDataRepository<T extends PlayerData> implements Listener {
+    private final JavaPlugin plugin;
+    private final long flushIntervalTicks;
+    private final Map<UUID, T> loaded = new ConcurrentHashMap<>();
+    private final Map<UUID, T> unsaved = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<Void>> pendingSaves = new ConcurrentHashMap<>();
+    private final ConsistencySession session = ConsistencySession.create();
+    private BukkitTask flushTask;
+
+    /**
+     * Creates a repository.
+     *
+     * @param plugin The plugin owning the repository.
+     * @param flushIntervalTicks The interval in ticks in which changed players are saved.
+     */
+    protected PlayerDataRepository(JavaPlugin plugin, long flushIntervalTicks) {
+        this.plugin = plugin;
+        this.flushIntervalTicks = flushIntervalTicks;
+    }
+
+    /**
+     * Loads the data of a player, or creates new data if the player is unknown. Runs on a database thread.
+     *
+     * @param uuid The unique id of the player.
+     * @return The data of the player.
+     * @throws DatabaseException If the data could not be loaded.
+     */
+    protected abstract T load(UUID uuid) throws DatabaseException;
+
+    /**
+     * Writes the changed fields of several players, preferably as a single batch. Runs on a database
+     * thread, so the fields read here should be safe to read concurrently.
+     *
+     * @param changes The changed players and the names of their changed fields.
+     * @throws DatabaseException If the data could not be saved, the changes are then retried on the next flush.
+     */
+    protected abstract void save(Map<T, Set<String>> changes) throws DatabaseException;
+
+    /**
+     * Registers the listeners, starts the periodic flush and loads the data of players who are already online.
+     */
+    public void register() {
+        Bukkit.getPluginManager().registerEvents(this, plugin);
+        flushTask = Bukkit.getScheduler().runTaskTimer(plugin, this::flush, flushIntervalTicks, flushIntervalTicks);
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            UUID uuid = player.getUniqueId();
+            CompletableFuture.supplyAsync(session.wrap(() -> load(uuid)), DatabaseExecutor.get())
+                    .thenAccept(data -> loaded.put(uuid, data))
+                    .exceptionally(throwable -> {
+                        plugin.getLogger().log(Level.SEVERE, "Failed to load data of " + player.getName(), throwable);
+                        return null;
+                    });
+        }
+    }
+
+    /**
+     * Stops the periodic flush and saves all changed players, waiting until they are written.
+     */
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        flush().join();
+        pendingSaves.values().forEach(CompletableFuture::join);
+    }
+
+    /**
+     * Returns the data of an online player.
+     *
+     * @param uuid The unique id of the player.
+     * @return The data, or null if the player is not online or their data failed to load.
+     */
+    public T get(UUID uuid) {
+        return loaded.get(uuid);
+    }
+
+    public T get(Player player) {
+        return get(player.getUniqueId());
+    }
+
+    public Collection<T> getLoaded() {
+        return Collections.unmodifiableCollection(loaded.values());
+    }
+
+    /**
+     * Saves every changed player in one batch, including players who quit and whose data was not saved yet.
+     *
+     * @return A future completed once the batch was written.
+     */
+    public CompletableFuture<Void> flush() {
+        if (unsaved.isEmpty()) {
+            return saveAsync(loaded.values());
+        }
+        List<T> candidates = new ArrayList<>(loaded.values());
+        candidates.addAll(unsaved.values());
+        return saveAsync(candidates);
+    }
+
+    @EventHandler
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        UUID uuid = event.getUniqueId();
+
+        CompletableFuture<Void> pendingSave = pendingSaves.get(uuid);
+        if (pendingSave != null) {
+            pendingSave.join();
+        }
+
+        T data = unsaved.remove(uuid);
+        if (data != null) {
+            loaded.put(uuid, data); // Newer than the stored data, it is saved by the next flush
+            return;
+        }
+
+        try {
+            loaded.put(uuid, session.wrap(() -> load(uuid)).get());
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load data of " + event.getName(), e);
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, Component.text("Unable to load your data, please try again."));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLoginResult(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            T data = loaded.remove(event.getUniqueId()); // Another plugin denied the login after we loaded
+            if (data != null && data.isDirty()) {
+                unsaved.put(event.getUniqueId(), data);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+        T data = loaded.remove(uuid);
+        if (data == null || !data.isDirty()) return;
+
+        unsaved.put(uuid, data);
+        saveAsync(Collections.singletonList(data));
+    }
+
+    private CompletableFuture<Void> saveAsync(Collection<T> candidates) {
+        Map<T, Set<String>> changes = new LinkedHashMap<>();
+        for (T data : candidates) {
+            Set<String> fields = data.getDirtyFields();
+            if (fields.isEmpty()) continue;
+            data.clearDirty(fields);
+            changes.put(data, fields);
+        }
+        if (changes.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> save = CompletableFuture.runAsync(session.wrap(() -> save(changes)), DatabaseExecutor.get())
+                .handle((result, throwable) -> {
+                    if (throwable != null) {
+                        plugin.getLogger().log(Level.SEVERE, "Failed to save data of " + changes.size() + " players", throwable);
+                        changes.forEach(PlayerData::restoreDirty);
+                    } else {
+                        for (T data : changes.keySet()) {
+                            if (!data.isDirty()) {
+                                unsaved.remove(data.getUniqueId(), data);
+                            }
+                        }
+                    }
+                    return null;
+                });
+        for (T data : changes.keySet()) {
+            track(data.getUniqueId(), save);
+        }
+        return save;
+    }
+
+    /**
+     * Remembers a running save of a player, so that a login of that player waits for it.
+     */
+    private void track(UUID uuid, CompletableFuture<Void> save) {
+        CompletableFuture<Void> tracked = pendingSaves.merge(uuid, save, CompletableFuture::allOf);
+        tracked.whenComplete((result, throwable) -> pendingSaves.remove(uuid, tracked));
+    }
+}
@@ -0,0 +1,211 @@
+package com.oresmash.smashengine.database;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.oresmash.smashengine.database.DatabaseInterface.PreparedStatementConsumer;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A read-through cache for query results, keyed by the SQL text and the parameters bound by its preparer.
+ * <p>
+ * Every table keeps a generation counter that is bumped by {@link #invalidate(String)} whenever a write
+ * statement touches it. A cached result remembers the generations of all identifiers its query mentions
+ * and is only served while none of them changed, so results loaded concurrently with a write are never
+ * served afterwards. Writes whose table cannot be determined invalidate the whole cache.
+ * <p>
+ * Every caller gets its own copy of the cached rows, so changing a returned row never affects the cache.
+ */
+public class QueryCache {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][\\w$]*");
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+            "^\\s*(?:INSERT(?:\\s+OR\\s+\\w+)?(?:\\s+IGNORE)?\\s+INTO|REPLACE\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+)?(?:\\s+IGNORE)?"
+                    + "|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|ALTER\\s+TABLE)"
+                    + "\\s+[`\"\\[]?(?:[\\w$]+[`\"\\]]?\\.[`\"\\[]?)?([\\w$]+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Set<String> KEYWORDS = Set.of(
+            "select", "distinct", "from", "where", "and", "or", "not", "in", "is", "null", "like", "between",
+            "join", "inner", "left", "right", "outer", "cross", "on", "using", "as", "group", "by", "order",
+            "having", "limit", "offset", "asc", "desc", "union", "all", "case", "when", "then", "else", "end",
+            "exists", "count", "sum", "min", "max", "avg", "coalesce", "ifnull", "with", "lower", "upper");
+    static final String UNKNOWN_TABLE = "";
+
+    private final Cache<Key, Entry> cache;
+    private final Map<String, String[]> dependencies = new ConcurrentHashMap<>();
+    private final Map<String, String> writeTables = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize The maximum number of cached results, the least recently used are evicted first.
+     * @param ttlMillis How long a result may be served after it was loaded.
+     */
+    public QueryCache(long maximumSize, long ttlMillis) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached result of a query, or loads and caches it.
+     *
+     * @param query The query.
+     * @param preparer Binds the statement parameters, it is run once more to capture them.
+     * @param loader Executes the query against the database.
+     * @return The rows of the query.
+     */
+    public List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer, Supplier<List<Map<String, Object>>> loader) {
+        BoundParameters parameters;
+        try {
+            parameters = BoundParameters.capture(preparer);
+        } catch (SQLException e) {
+            return loader.get(); // The preparer does more than binding parameters, so it can't be keyed
+        }
+        if (!parameters.isComparable()) {
+            return loader.get();
+        }
+
+        String[] tables = dependencies.computeIfAbsent(query, QueryCache::identifiers);
+        Key key = new Key(query, parameters);
+        Entry entry = cache.getIfPresent(key);
+        if (entry != null && isCurrent(entry, tables)) {
+            hits.increment();
+            return copy(entry.rows());
+        }
+
+        misses.increment();
+        long[] snapshot = snapshot(tables);
+        List<Map<String, Object>> rows = loader.get();
+        cache.put(key, new Entry(snapshot, copy(rows)));
+        return rows;
+    }
+
+    /**
+     * Invalidates all cached results that depend on the table written by a statement.
+     *
+     * @param statement The write statement.
+     */
+    public void invalidate(String statement) {
+        invalidations.increment();
+        String table = writeTables.computeIfAbsent(statement, QueryCache::writeTable);
+        if (table.equals(UNKNOWN_TABLE)) {
+            globalGeneration.incrementAndGet();
+        } else {
+            generations.computeIfAbsent(table, key -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public void invalidateAll() {
+        invalidations.increment();
+        globalGeneration.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), invalidations.sum(), cache.stats().evictionCount(), cache.size());
+    }
+
+    private boolean isCurrent(Entry entry, String[] tables) {
+        long[] snapshot = entry.generations();
+        if (snapshot[tables.length] != globalGeneration.get()) {
+            return false;
+        }
+        for (int i = 0; i < tables.length; i++) {
+            if (snapshot[i] != generation(tables[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long[] snapshot(String[] tables) {
+        long[] snapshot = new long[tables.length + 1];
+        snapshot[tables.length] = globalGeneration.get();
+        for (int i = 0; i < tables.length; i++) {
+            snapshot[i] = generation(tables[i]);
+        }
+        return snapshot;
+    }
+
+    private long generation(String table) {
+        AtomicLong generation = generations.get(table);
+        return generation == null ? 0L : generation.get();
+    }
+
+    private static List<Map<String, Object>> copy(List<Map<String, Object>> rows) {
+        List<Map<String, Object>> copy = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            copy.add(row instanceof Row cached ? cached.copy() : new LinkedHashMap<>(row));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the lower case identifiers a query mentions, a superset of the tables it reads.
+     */
+    static String[] identifiers(String query) {
+        Set<String> identifiers = new LinkedHashSet<>();
+        Matcher matcher = IDENTIFIER.matcher(query);
+        while (matcher.find()) {
+            String identifier = matcher.group().toLowerCase(Locale.ROOT);
+            if (!KEYWORDS.contains(identifier)) {
+                identifiers.add(identifier);
+            }
+        }
+        return identifiers.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the lower case name of the table a statement writes, or {@link #UNKNOWN_TABLE}.
+     */
+    static String writeTable(String statement) {
+        Matcher matcher = WRITE_TABLE.matcher(statement);
+        return matcher.find() ? matcher.group(1).toLowerCase(Locale.ROOT) : UNKNOWN_TABLE;
+    }
+
+    private record Key(String query, BoundParameters parameters) {
+    }
+
+    private record Entry(long[] generations, List<Map<String, Object>> rows) {
+    }
+
+    /**
+     * A snapshot of the cache statistics.
+     *
+     * @param hits The number of queries answered from the cache.
+     * @param misses The number of queries that went to the database.
+     * @param invalidations The number of writes that invalidated cached results.
+     * @param evictions The number of results evicted for size or age.
+     * @param size The number of cached results.
+     */
+    public record Stats(long hits, long misses, long invalidations, long evictions, long size) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0D : (double) hits / total;
+        }
+    }
+}
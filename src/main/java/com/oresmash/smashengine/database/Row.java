@@ -0,0 +1,275 @@
+package com.oresmash.smashengine.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A single result row, stored as a plain value array next to the {@link RowSchema} shared by all rows
+ * of the same result.
+ * <p>
+ * Rows behave like the mutable maps returned by {@link DatabaseInterface#query(String, DatabaseInterface.PreparedStatementConsumer)}
+ * always did. Columns can be overwritten and removed, and keys that are not a column of the result are
+ * kept in a separate map that is only created once such a key is put.
+ */
+public final class Row extends AbstractMap<String, Object> {
+    private static final Object REMOVED = new Object();
+
+    private final RowSchema schema;
+    private final Object[] values;
+    private int removed;
+    private Map<String, Object> extra;
+    private Set<Entry<String, Object>> entrySet;
+
+    Row(RowSchema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
+    }
+
+    /**
+     * Reads all remaining rows of a result set.
+     *
+     * @param rs The result set to read.
+     * @return The rows.
+     * @throws SQLException If the result set could not be read.
+     */
+    static List<Map<String, Object>> readAll(ResultSet rs) throws SQLException {
+        RowSchema schema = RowSchema.of(rs.getMetaData());
+        int columnCount = schema.size();
+        List<Map<String, Object>> results = new ArrayList<>();
+        while (rs.next()) {
+            Object[] values = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = rs.getObject(schema.jdbcIndex(i));
+            }
+            results.add(new Row(schema, values));
+        }
+        return results;
+    }
+
+    public RowSchema schema() {
+        return schema;
+    }
+
+    /**
+     * Returns the value at a column position.
+     *
+     * @param position The position of the column in the schema.
+     * @return The value.
+     */
+    public Object get(int position) {
+        Object value = values[position];
+        return value == REMOVED ? null : value;
+    }
+
+    public String getString(String column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    public int getInt(String column) {
+        Object value = get(column);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public long getLong(String column) {
+        Object value = get(column);
+        return value == null ? 0L : ((Number) value).longValue();
+    }
+
+    public double getDouble(String column) {
+        Object value = get(column);
+        return value == null ? 0D : ((Number) value).doubleValue();
+    }
+
+    public boolean getBoolean(String column) {
+        Object value = get(column);
+        if (value instanceof Boolean bool) return bool;
+        return value instanceof Number number && number.intValue() != 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int position = schema.indexOf(key);
+        if (position >= 0) {
+            return get(position);
+        }
+        return extra == null ? null : extra.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int position = schema.indexOf(key);
+        if (position >= 0) {
+            return values[position] != REMOVED;
+        }
+        return extra != null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int position = schema.indexOf(key);
+        if (position < 0) {
+            if (extra == null) {
+                extra = new LinkedHashMap<>();
+            }
+            return extra.put(key, value);
+        }
+        return set(position, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int position = schema.indexOf(key);
+        if (position < 0) {
+            return extra == null ? null : extra.remove(key);
+        }
+        return unset(position);
+    }
+
+    @Override
+    public int size() {
+        return values.length - removed + (extra == null ? 0 : extra.size());
+    }
+
+    /**
+     * Returns an independent copy of this row sharing the same schema.
+     */
+    Row copy() {
+        Row copy = new Row(schema, values.clone());
+        copy.removed = removed;
+        if (extra != null) {
+            copy.extra = new LinkedHashMap<>(extra);
+        }
+        return copy;
+    }
+
+    private Object set(int position, Object value) {
+        Object previous = values[position];
+        values[position] = value;
+        if (previous == REMOVED) {
+            removed--;
+            return null;
+        }
+        return previous;
+    }
+
+    private Object unset(int position) {
+        Object previous = values[position];
+        if (previous == REMOVED) return null;
+        values[position] = REMOVED;
+        removed++;
+        return previous;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return Row.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Iterates the remaining columns in schema order, followed by the extra keys.
+     */
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int position = -1;
+        private int next = advance(0);
+        private Iterator<Entry<String, Object>> extraIterator;
+        private boolean inExtra;
+
+        private int advance(int from) {
+            while (from < values.length && values[from] == REMOVED) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < values.length) return true;
+            if (extraIterator == null && extra != null) {
+                extraIterator = extra.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            if (next < values.length) {
+                position = next;
+                next = advance(next + 1);
+                return new ColumnEntry(position);
+            }
+            inExtra = true;
+            return extraIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (inExtra) {
+                extraIterator.remove();
+            } else if (position < 0 || values[position] == REMOVED) {
+                throw new IllegalStateException();
+            } else {
+                unset(position);
+            }
+        }
+    }
+
+    private final class ColumnEntry implements Entry<String, Object> {
+        private final int position;
+
+        private ColumnEntry(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.name(position);
+        }
+
+        @Override
+        public Object getValue() {
+            return get(position);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return set(position, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> entry
+                    && getKey().equals(entry.getKey())
+                    && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.oresmash.smashengine.database;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The columns of a query result, resolved once per result set and shared by all of its {@link Row}s.
+ * <p>
+ * When a result contains the same column name twice, the last column wins, just like it did when
+ * rows were plain hash maps.
+ */
+public final class RowSchema {
+    private final String[] names;
+    private final int[] jdbcIndexes;
+    private final Map<String, Integer> positions;
+
+    private RowSchema(String[] names, int[] jdbcIndexes) {
+        this.names = names;
+        this.jdbcIndexes = jdbcIndexes;
+        this.positions = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            positions.put(names[i], i);
+        }
+    }
+
+    /**
+     * Resolves the schema of a result set.
+     *
+     * @param metaData The metadata of the result set.
+     * @return The schema.
+     * @throws SQLException If the metadata could not be read.
+     */
+    public static RowSchema of(ResultSetMetaData metaData) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        Map<String, Integer> columns = new LinkedHashMap<>();
+        for (int i = 1; i <= columnCount; i++) {
+            columns.put(metaData.getColumnName(i), i);
+        }
+
+        String[] names = columns.keySet().toArray(new String[0]);
+        int[] jdbcIndexes = columns.values().stream().mapToInt(Integer::intValue).toArray();
+        return new RowSchema(names, jdbcIndexes);
+    }
+
+    /**
+     * Returns the position of a column in the rows of this schema.
+     *
+     * @param column The column name.
+     * @return The position, or -1 if the column is not part of the result.
+     */
+    public int indexOf(Object column) {
+        Integer position = positions.get(column);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Returns the name of the column at a position.
+     *
+     * @param position The position of the column.
+     * @return The column name.
+     */
+    public String name(int position) {
+        return names[position];
+    }
+
+    /**
+     * Returns the column names, in result order.
+     *
+     * @return The column names.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    int jdbcIndex(int position) {
+        return jdbcIndexes[position];
+    }
+}
@@ -5,31 +5,161 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * SQLite backend running in WAL mode, so readers never block the writer and vice versa.
+ * <p>
+ * All writes go through a single connection and are serialized on it, while reads borrow one of
+ * {@code database.SQLite.readers} read-only connections and run in parallel. With zero readers,
+ * queries run on the writer connection as well. A read waits at most {@code database.SQLite.reader-timeout}
+ * milliseconds for a reader connection.
+ * <p>
+ * Every connection keeps up to {@code database.SQLite.statement-cache-size} compiled statements, so
+ * frequently executed statements are parsed and planned only once, see {@link StatementCache}.
+ */
 public class SQLite implements DatabaseInterface {
-    private final Connection connection;
+    private final Connection writer;
+    private final Object writeLock = new Object();
+    private final List<Connection> readers = new ArrayList<>();
+    private final BlockingQueue<Connection> idleReaders;
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+    private final int fetchSize;
+    private final int transactionRetries;
+    private final long readerTimeoutMillis;
+    private final DatabaseMetrics metrics;
+    private volatile boolean closed;
+    private volatile boolean stoppedWaiting;
 
     public static DatabaseInterface initialize(FileConfiguration config, JavaPlugin plugin) {
         String file = config.getString("database.SQLite.file");
         String url = "jdbc:sqlite:" + plugin.getDataFolder() + "/" + file;
+        int fetchSize = config.getInt("database.fetch-size", 1000);
+        int transactionRetries = config.getInt("database.transaction.max-retries", 3);
+        int readers = config.getInt("database.SQLite.readers", 4);
+        int cacheSize = config.getInt("database.SQLite.cache-size", -16000); // Negative means KiB, so 16 MB
+        long mmapSize = config.getLong("database.SQLite.mmap-size", 268435456L); // 256 MB
+        int statementCacheSize = config.getInt("database.SQLite.statement-cache-size", 64);
+        long readerTimeout = config.getLong("database.SQLite.reader-timeout", 10_000L);
+        DatabaseMetrics metrics = new DatabaseMetrics(plugin.getName() + "-sqlite", plugin.getLogger(),
+                config.getLong("database.slow-query-threshold", 250L));
         try {
-            return new SQLite(url);
+            return new SQLite(url, fetchSize, readers, cacheSize, mmapSize, statementCacheSize, transactionRetries,
+                    readerTimeout, metrics);
         } catch (SQLException e) {
+            metrics.close();
             throw new DatabaseException("Unable to initialize SQLite database", e);
         }
     }
 
-    private SQLite(String url) throws SQLException {
-        this.connection = DriverManager.getConnection(url);
+    SQLite(String url, int fetchSize, int readerCount, int cacheSize, long mmapSize, int statementCacheSize,
+            int transactionRetries, DatabaseMetrics metrics) throws SQLException {
+        this(url, fetchSize, readerCount, cacheSize, mmapSize, statementCacheSize, transactionRetries, 10_000L, metrics);
+    }
+
+    SQLite(String url, int fetchSize, int readerCount, int cacheSize, long mmapSize, int statementCacheSize,
+            int transactionRetries, long readerTimeoutMillis, DatabaseMetrics metrics) throws SQLException {
+        this.fetchSize = fetchSize;
+        this.transactionRetries = transactionRetries;
+        this.readerTimeoutMillis = readerTimeoutMillis;
+        this.metrics = metrics;
+        this.writer = DriverManager.getConnection(url);
+        try (Statement stmt = writer.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+        }
+        applyPragmas(writer, cacheSize, mmapSize);
+        statementCaches.put(writer, new StatementCache(writer, statementCacheSize));
+
+        this.idleReaders = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+        for (int i = 0; i < readerCount; i++) {
+            Connection reader = DriverManager.getConnection(url);
+            applyPragmas(reader, cacheSize, mmapSize);
+            try (Statement stmt = reader.createStatement()) {
+                stmt.execute("PRAGMA query_only = ON");
+            }
+            readers.add(reader);
+            statementCaches.put(reader, new StatementCache(reader, statementCacheSize));
+            idleReaders.add(reader);
+        }
+        metrics.registerPool(metrics.getName() + "-readers", () -> {
+            int idle = idleReaders.size();
+            return new DatabaseMetrics.PoolSnapshot(metrics.getName() + "-readers", readers.size(),
+                    readers.size() - idle, idle, 0, readers.size());
+        });
+        metrics.registerStatementCache(this::getStatementCacheStats);
+    }
+
+    private static void applyPragmas(Connection connection, int cacheSize, long mmapSize) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA synchronous = NORMAL"); // Durable in WAL mode except on power loss
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            stmt.execute("PRAGMA temp_store = MEMORY");
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA mmap_size = " + mmapSize);
+        }
+    }
+
+    private Connection borrowReader() throws SQLException {
+        if (closed) {
+            throw new SQLException("The database is closed");
+        }
+        if (readers.isEmpty()) {
+            return null;
+        }
+        Connection reader;
+        try {
+            reader = idleReaders.poll(readerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        }
+        if (reader == null) {
+            throw new SQLTimeoutException("Timed out after " + readerTimeoutMillis + "ms waiting for a reader connection");
+        }
+        if (closed) {
+            releaseReader(reader);
+            throw new SQLException("The database is closed");
+        }
+        return reader;
+    }
+
+    private void releaseReader(Connection reader) {
+        if (reader != null) {
+            idleReaders.offer(reader);
+            if (stoppedWaiting) {
+                closeIdleReaders(); // disconnect() already gave up waiting for it
+            }
+        }
+    }
+
+    private int closeIdleReaders() {
+        int count = 0;
+        Connection reader;
+        while ((reader = idleReaders.poll()) != null) {
+            closeReader(reader);
+            count++;
+        }
+        return count;
+    }
+
+    private void closeReader(Connection reader) {
+        statementCaches.get(reader).close();
+        try {
+            reader.close();
+        } catch (SQLException ignored) {
+        }
     }
 
     @Override
     public void connect() throws DatabaseException {
         try {
-            if (connection.isClosed()) {
+            if (writer.isClosed()) {
                 throw new SQLException("Connection is closed");
             }
         } catch (SQLException e) {
@@ -37,59 +167,224 @@ public class SQLite implements DatabaseInterface {
         }
     }
 
+    /**
+     * Closes the database. Readers still borrowed by running queries are closed once they are returned,
+     * or after {@code database.SQLite.reader-timeout} milliseconds at the latest.
+     */
     @Override
     public void disconnect() {
+        closed = true;
         try {
-            if (!connection.isClosed()) {
-                connection.close();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readerTimeoutMillis);
+            int remaining = readers.size() - closeIdleReaders();
+            while (remaining > 0) {
+                long wait = deadline - System.nanoTime();
+                Connection reader = wait > 0 ? idleReaders.poll(wait, TimeUnit.NANOSECONDS) : null;
+                if (reader == null) break;
+                closeReader(reader);
+                remaining--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stoppedWaiting = true;
+        }
+        try {
+            readers.forEach(this::closeReader); // Readers not returned in time
+            synchronized (writeLock) {
+                statementCaches.get(writer).close();
+                if (!writer.isClosed()) {
+                    writer.close();
+                }
             }
         } catch (SQLException e) {
             throw new DatabaseException("Unable to disconnect from the database", e);
+        } finally {
+            metrics.close();
         }
     }
 
     @Override
     public boolean isConnected() {
         try {
-            return !connection.isClosed();
+            return !writer.isClosed();
         } catch (SQLException e) {
             throw new DatabaseException("Error checking connection status", e);
         }
     }
 
+    @Override
+    public DatabaseMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the statistics of the statement caches of all connections.
+     *
+     * @return The combined statistics.
+     */
+    public StatementCache.Stats getStatementCacheStats() {
+        return StatementCache.combined(statementCaches.values());
+    }
+
+    @Override
+    public SqlDialect getDialect() {
+        return SqlDialect.SQLITE;
+    }
+
     @Override
     public void prepared(String query, PreparedStatementConsumer preparer) throws DatabaseException {
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            preparer.accept(stmt);
-            stmt.executeUpdate();
+        long start = System.nanoTime();
+        synchronized (writeLock) {
+            try {
+                int rows = statementCaches.get(writer).execute(query, stmt -> {
+                    preparer.accept(stmt);
+                    return stmt.executeUpdate();
+                });
+                metrics.record(query, start, rows);
+            } catch (SQLException e) {
+                metrics.recordError(query, start);
+                throw new DatabaseException("Error executing prepared statement", e);
+            }
+        }
+    }
+
+    @Override
+    public void batch(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        synchronized (writeLock) {
+            try {
+                writer.setAutoCommit(false);
+                try {
+                    for (Map.Entry<String, ? extends Collection<PreparedStatementConsumer>> entry : statements.entrySet()) {
+                        long start = System.nanoTime();
+                        try {
+                            int rows = statementCaches.get(writer).execute(entry.getKey(), stmt -> {
+                                for (PreparedStatementConsumer preparer : entry.getValue()) {
+                                    preparer.accept(stmt);
+                                    stmt.addBatch();
+                                }
+                                int affected = 0;
+                                for (int count : stmt.executeBatch()) {
+                                    if (count > 0) affected += count;
+                                }
+                                return affected;
+                            });
+                            metrics.record(entry.getKey(), start, rows);
+                        } catch (SQLException e) {
+                            metrics.recordError(entry.getKey(), start);
+                            throw e;
+                        }
+                    }
+                    writer.commit();
+                } catch (SQLException e) {
+                    writer.rollback();
+                    throw e;
+                } finally {
+                    writer.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new DatabaseException("Error executing batch", e);
+            }
+        }
+    }
+
+    /**
+     * Runs a transaction on the writer connection, blocking other writes until it completes. The isolation
+     * level is ignored, SQLite transactions are always serializable. Other writes may run while a failed
+     * attempt backs off before it is retried.
+     */
+    @Override
+    public <T> T transaction(Transaction.Isolation isolation, TransactionCallback<T> callback) throws DatabaseException {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    synchronized (writeLock) {
+                        return Transaction.run(writer, SqlDialect.SQLITE, Transaction.Isolation.DEFAULT, 0, metrics,
+                                statementCaches.get(writer), callback);
+                    }
+                } catch (SQLException e) {
+                    if (attempt >= transactionRetries || !Transaction.isRetryable(SqlDialect.SQLITE, e)) {
+                        throw e;
+                    }
+                    Transaction.backoff(attempt);
+                }
+            }
         } catch (SQLException e) {
-            throw new DatabaseException("Error executing prepared statement", e);
+            throw new DatabaseException("Error executing transaction", e);
         }
     }
 
     @Override
     public List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer) throws DatabaseException {
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            preparer.accept(stmt);
-            return executeQueryAndGetResults(stmt);
+        long start = System.nanoTime();
+        try {
+            List<Map<String, Object>> rows;
+            Connection reader = borrowReader();
+            if (reader == null) {
+                synchronized (writeLock) {
+                    rows = executeQuery(writer, query, preparer);
+                }
+            } else {
+                try {
+                    rows = executeQuery(reader, query, preparer);
+                } finally {
+                    releaseReader(reader);
+                }
+            }
+            metrics.record(query, start, rows.size());
+            return rows;
         } catch (SQLException e) {
+            metrics.recordError(query, start);
             throw new DatabaseException("Error executing query", e);
         }
     }
 
-    private List<Map<String, Object>> executeQueryAndGetResults(PreparedStatement stmt) throws SQLException {
-        try (ResultSet rs = stmt.executeQuery()) {
-            List<Map<String, Object>> results = new ArrayList<>();
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.put(metaData.getColumnName(i), rs.getObject(i));
+    @Override
+    public void stream(String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws DatabaseException {
+        long start = System.nanoTime();
+        try {
+            long rows;
+            Connection reader = borrowReader();
+            if (reader == null) {
+                synchronized (writeLock) {
+                    rows = executeStream(writer, query, preparer, consumer);
+                }
+            } else {
+                try {
+                    rows = executeStream(reader, query, preparer, consumer);
+                } finally {
+                    releaseReader(reader);
                 }
-                results.add(row);
             }
-            return results;
+            metrics.record(query, start, rows);
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            throw new DatabaseException("Error streaming query", e);
         }
     }
+
+    private List<Map<String, Object>> executeQuery(Connection connection, String query, PreparedStatementConsumer preparer) throws SQLException {
+        return statementCaches.get(connection).execute(query, stmt -> {
+            preparer.accept(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return Row.readAll(rs);
+            }
+        });
+    }
+
+    private long executeStream(Connection connection, String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws SQLException {
+        // SQLite statements are forward-only and read-only by default, so they can be shared with query()
+        return statementCaches.get(connection).execute(query, stmt -> {
+            stmt.setFetchSize(fetchSize);
+            preparer.accept(stmt);
+            long rows = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    consumer.accept(rs);
+                    rows++;
+                }
+            }
+            return rows;
+        });
+    }
 }
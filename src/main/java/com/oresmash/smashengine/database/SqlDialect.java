@@ -0,0 +1,127 @@
+package com.oresmash.smashengine.database;
+
+import java.util.List;
+
+/**
+ * The SQL flavours spoken by the supported backends, for the few statements that cannot be written portably.
+ */
+public enum SqlDialect {
+    /**
+     * MySQL and MariaDB. A statement may bind at most 65535 parameters.
+     */
+    MYSQL('`', 65_535) {
+        @Override
+        void appendConflictClause(StringBuilder sql, List<String> columns, List<String> keyColumns) {
+            sql.append(" ON DUPLICATE KEY UPDATE ");
+            boolean first = true;
+            for (String column : columns) {
+                if (keyColumns.contains(column)) continue;
+                if (!first) sql.append(", ");
+                String quoted = quote(column);
+                sql.append(quoted).append(" = VALUES(").append(quoted).append(')');
+                first = false;
+            }
+            if (first) {
+                String key = quote(keyColumns.get(0));
+                sql.append(key).append(" = ").append(key); // Nothing to update, keep the existing row
+            }
+        }
+    },
+    /**
+     * SQLite 3.32 or newer, where a statement may bind at most 32766 parameters. Older versions allow only
+     * 999 and are not supported.
+     */
+    SQLITE('"', 32_766) {
+        @Override
+        void appendConflictClause(StringBuilder sql, List<String> columns, List<String> keyColumns) {
+            sql.append(" ON CONFLICT (");
+            for (int i = 0; i < keyColumns.size(); i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(quote(keyColumns.get(i)));
+            }
+            sql.append(')');
+
+            boolean first = true;
+            for (String column : columns) {
+                if (keyColumns.contains(column)) continue;
+                sql.append(first ? " DO UPDATE SET " : ", ");
+                String quoted = quote(column);
+                sql.append(quoted).append(" = excluded.").append(quoted);
+                first = false;
+            }
+            if (first) {
+                sql.append(" DO NOTHING");
+            }
+        }
+    };
+
+    private final char quote;
+    private final int maxParameters;
+
+    SqlDialect(char quote, int maxParameters) {
+        this.quote = quote;
+        this.maxParameters = maxParameters;
+    }
+
+    /**
+     * Returns the maximum number of parameters a single statement may bind.
+     *
+     * @return The parameter limit of the driver.
+     */
+    public int getMaxParameters() {
+        return maxParameters;
+    }
+
+    /**
+     * Quotes an identifier, so that column names which are reserved words can be used. Each part of a
+     * qualified name like {@code schema.table} is quoted on its own.
+     *
+     * @param identifier The table or column name, optionally qualified.
+     * @return The quoted identifier.
+     */
+    public String quote(String identifier) {
+        StringBuilder quoted = new StringBuilder(identifier.length() + 4);
+        int start = 0;
+        while (true) {
+            int dot = identifier.indexOf('.', start);
+            String part = identifier.substring(start, dot < 0 ? identifier.length() : dot);
+            quoted.append(quote).append(part.replace(String.valueOf(quote), String.valueOf(quote) + quote)).append(quote);
+            if (dot < 0) return quoted.toString();
+            quoted.append('.');
+            start = dot + 1;
+        }
+    }
+
+    /**
+     * Builds a multi-row statement inserting rows and updating the non-key columns of rows that already exist.
+     *
+     * @param table The table to write to.
+     * @param columns All columns to write, in parameter order.
+     * @param keyColumns The columns of the primary key or unique index identifying a row.
+     * @param rows The number of rows the statement inserts.
+     * @return The statement, binding {@code rows * columns.size()} parameters row by row.
+     */
+    public String upsert(String table, List<String> columns, List<String> keyColumns, int rows) {
+        StringBuilder sql = new StringBuilder(64 + rows * (columns.size() * 3 + 3));
+        sql.append("INSERT INTO ").append(quote(table)).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(quote(columns.get(i)));
+        }
+        sql.append(") VALUES ");
+
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) sql.append(", ");
+            sql.append('(');
+            for (int i = 0; i < columns.size(); i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(')');
+        }
+
+        appendConflictClause(sql, columns, keyColumns);
+        return sql.toString();
+    }
+
+    abstract void appendConflictClause(StringBuilder sql, List<String> columns, List<String> keyColumns);
+}
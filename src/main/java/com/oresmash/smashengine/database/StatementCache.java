@@ -0,0 +1,176 @@
+package com.oresmash.smashengine.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of compiled statements for a single connection, keyed by their SQL.
+ * <p>
+ * Statements are checked out with {@link #acquire(String)} and handed back with {@link #release(String, PreparedStatement)},
+ * so a statement is never used twice at the same time, even when a row callback runs another query on
+ * the same connection. Statements evicted from the cache or discarded after an error are closed.
+ */
+public final class StatementCache {
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<String, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param connection The connection to prepare statements on.
+     * @param maxSize The number of idle statements to keep, 0 disables caching.
+     */
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= StatementCache.this.maxSize) return false;
+                evictions++;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Takes the cached statement for a query, or prepares a new one.
+     *
+     * @param sql The statement.
+     * @return A statement with no parameters bound, to pass back to {@link #release(String, PreparedStatement)} or {@link #discard(PreparedStatement)}.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    synchronized PreparedStatement acquire(String sql) throws SQLException {
+        PreparedStatement stmt = statements.remove(sql);
+        if (stmt != null) {
+            hits++;
+            return stmt;
+        }
+        misses++;
+        return connection.prepareStatement(sql);
+    }
+
+    /**
+     * Returns a statement to the cache after it was used successfully.
+     *
+     * @param sql The statement the statement was acquired for.
+     * @param stmt The statement.
+     */
+    synchronized void release(String sql, PreparedStatement stmt) {
+        if (maxSize == 0) {
+            closeQuietly(stmt);
+            return;
+        }
+        try {
+            stmt.clearParameters();
+        } catch (SQLException e) {
+            closeQuietly(stmt);
+            return;
+        }
+        PreparedStatement previous = statements.put(sql, stmt);
+        if (previous != null) {
+            closeQuietly(previous); // A nested use prepared a second copy
+        }
+    }
+
+    /**
+     * Runs a function with the cached statement for a query. The statement is returned to the cache if
+     * the function completes, and closed if it throws.
+     *
+     * @param sql The statement.
+     * @param function Binds, executes and reads the statement.
+     * @return The result of the function.
+     * @throws SQLException If the statement could not be prepared or the function failed.
+     */
+    <T> T execute(String sql, StatementFunction<T> function) throws SQLException {
+        PreparedStatement stmt = acquire(sql);
+        boolean reusable = false;
+        try {
+            T result = function.apply(stmt);
+            reusable = true;
+            return result;
+        } finally {
+            if (reusable) {
+                release(sql, stmt);
+            } else {
+                discard(stmt);
+            }
+        }
+    }
+
+    /**
+     * Closes a statement that failed instead of returning it to the cache.
+     *
+     * @param stmt The statement.
+     */
+    void discard(PreparedStatement stmt) {
+        closeQuietly(stmt);
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, statements.size());
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * Sums the statistics of several caches.
+     *
+     * @param caches The caches.
+     * @return The combined statistics.
+     */
+    static Stats combined(Collection<StatementCache> caches) {
+        long hits = 0, misses = 0, evictions = 0;
+        int size = 0;
+        for (StatementCache cache : caches) {
+            Stats stats = cache.stats();
+            hits += stats.hits();
+            misses += stats.misses();
+            evictions += stats.evictions();
+            size += stats.size();
+        }
+        return new Stats(hits, misses, evictions, size);
+    }
+
+    @FunctionalInterface
+    interface StatementFunction<T> {
+        T apply(PreparedStatement stmt) throws SQLException;
+    }
+
+    /**
+     * Statement cache statistics.
+     *
+     * @param hits Statements reused from the cache.
+     * @param misses Statements that had to be prepared.
+     * @param evictions Statements closed because the cache was full.
+     * @param size Statements currently cached.
+     */
+    public record Stats(long hits, long misses, long evictions, int size) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0D : (double) hits / total;
+        }
+    }
+}
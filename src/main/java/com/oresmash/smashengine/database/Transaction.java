@@ -0,0 +1,286 @@
+package com.oresmash.smashengine.database;
+
+import com.oresmash.smashengine.database.DatabaseInterface.PreparedStatementConsumer;
+import com.oresmash.smashengine.database.DatabaseInterface.RowConsumer;
+import com.oresmash.smashengine.database.DatabaseInterface.RowMapper;
+import com.oresmash.smashengine.database.DatabaseInterface.TransactionCallback;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A unit of work running several statements on one connection, committed or rolled back together.
+ * Obtained through {@link DatabaseInterface#transaction(TransactionCallback)} and only valid inside the callback.
+ */
+public final class Transaction {
+    private static final int MYSQL_DEADLOCK = 1213;
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private final Connection connection;
+    private final DatabaseMetrics metrics;
+    private final StatementCache statementCache;
+    private final Set<String> writes = new LinkedHashSet<>();
+
+    private Transaction(Connection connection, DatabaseMetrics metrics, StatementCache statementCache) {
+        this.connection = connection;
+        this.metrics = metrics;
+        this.statementCache = statementCache;
+    }
+
+    /**
+     * Executes a write statement. Unlike {@link DatabaseInterface#prepared(String, PreparedStatementConsumer)},
+     * constraint violations are not skipped, so they roll back the whole transaction unless caught.
+     *
+     * @param query The statement to execute.
+     * @param preparer Binds the statement parameters.
+     * @return The number of affected rows.
+     * @throws SQLException If the statement failed.
+     */
+    public int prepared(String query, PreparedStatementConsumer preparer) throws SQLException {
+        writes.add(query);
+        long start = System.nanoTime();
+        try {
+            int rows = execute(query, stmt -> {
+                preparer.accept(stmt);
+                return stmt.executeUpdate();
+            });
+            metrics.record(query, start, rows);
+            return rows;
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a query, seeing the uncommitted writes of this transaction.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @return The resulting rows.
+     * @throws SQLException If the query failed.
+     */
+    public List<Map<String, Object>> query(String query, PreparedStatementConsumer preparer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            List<Map<String, Object>> rows = execute(query, stmt -> {
+                preparer.accept(stmt);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return Row.readAll(rs);
+                }
+            });
+            metrics.record(query, start, rows.size());
+            return rows;
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a query and maps every row into a user type.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param mapper Maps the current row of the result set.
+     * @return The mapped rows.
+     * @throws SQLException If the query or the mapper failed.
+     */
+    public <T> List<T> query(String query, PreparedStatementConsumer preparer, RowMapper<T> mapper) throws SQLException {
+        List<T> results = new ArrayList<>();
+        stream(query, preparer, rs -> results.add(mapper.map(rs)));
+        return results;
+    }
+
+    /**
+     * Executes a query and hands every row to the consumer while the result set is being read.
+     *
+     * @param query The query to execute.
+     * @param preparer Binds the statement parameters.
+     * @param consumer Called once per row, with the result set positioned on that row.
+     * @throws SQLException If the query or the consumer failed.
+     */
+    public void stream(String query, PreparedStatementConsumer preparer, RowConsumer consumer) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            long rows = execute(query, stmt -> {
+                preparer.accept(stmt);
+                long count = 0;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumer.accept(rs);
+                        count++;
+                    }
+                }
+                return count;
+            });
+            metrics.record(query, start, rows);
+        } catch (SQLException e) {
+            metrics.recordError(query, start);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the connection of this transaction, for statements the other methods cannot express.
+     * It must not be closed, committed or rolled back. Writes made through it are not seen by the query cache.
+     *
+     * @return The connection.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns the write statements executed through {@link #prepared(String, PreparedStatementConsumer)}.
+     *
+     * @return The statements, in execution order.
+     */
+    Set<String> getWrites() {
+        return writes;
+    }
+
+    private <T> T execute(String query, StatementCache.StatementFunction<T> function) throws SQLException {
+        if (statementCache != null) {
+            return statementCache.execute(query, function);
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            return function.apply(stmt);
+        }
+    }
+
+    /**
+     * Runs a callback in a transaction on a connection, retrying it after deadlocks and lock timeouts.
+     * The auto-commit mode and isolation level of the connection are restored afterwards.
+     *
+     * @param connection The connection, in auto-commit mode.
+     * @param dialect The dialect of the connection, to recognize retryable errors.
+     * @param isolation The isolation level.
+     * @param maxRetries How often the callback is retried after a retryable error.
+     * @param metrics The metrics to record the statements in.
+     * @param statementCache The statement cache of the connection, or null.
+     * @param callback The unit of work.
+     * @return The result of the callback.
+     * @throws SQLException If the transaction failed and was rolled back.
+     */
+    static <T> T run(Connection connection, SqlDialect dialect, Isolation isolation, int maxRetries, DatabaseMetrics metrics,
+                     StatementCache statementCache, TransactionCallback<T> callback) throws SQLException {
+        int previousIsolation = connection.getTransactionIsolation();
+        if (isolation != Isolation.DEFAULT) {
+            connection.setTransactionIsolation(isolation.level);
+        }
+        connection.setAutoCommit(false);
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    T result = callback.run(new Transaction(connection, metrics, statementCache));
+                    connection.commit();
+                    return result;
+                } catch (SQLException e) {
+                    connection.rollback();
+                    if (attempt >= maxRetries || !isRetryable(dialect, e)) {
+                        throw e;
+                    }
+                    backoff(attempt);
+                } catch (RuntimeException | Error e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        } finally {
+            connection.setAutoCommit(true);
+            if (isolation != Isolation.DEFAULT) {
+                connection.setTransactionIsolation(previousIsolation);
+            }
+        }
+    }
+
+    /**
+     * Runs a callback in a transaction and records the write statements it executed, even if it failed.
+     *
+     * @param writes Receives the write statements of every attempt.
+     * @param callback The unit of work.
+     * @return A callback doing the same.
+     */
+    static <T> TransactionCallback<T> recordingWrites(Set<String> writes, TransactionCallback<T> callback) {
+        return transaction -> {
+            try {
+                return callback.run(transaction);
+            } finally {
+                writes.addAll(transaction.getWrites());
+            }
+        };
+    }
+
+    /**
+     * Returns whether an error is a deadlock, lock timeout or busy database, which may succeed when retried.
+     *
+     * @param dialect The dialect of the connection that reported the error.
+     * @param e The error.
+     * @return Whether the statement or transaction should be retried.
+     */
+    static boolean isRetryable(SqlDialect dialect, SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (!(cause instanceof SQLException sqlException)) continue;
+            if ("40001".equals(sqlException.getSQLState())) {
+                return true; // Serialization failure, reported for deadlocks
+            }
+            int code = sqlException.getErrorCode();
+            if (dialect == SqlDialect.MYSQL && (code == MYSQL_DEADLOCK || code == MYSQL_LOCK_WAIT_TIMEOUT)) {
+                return true;
+            }
+            if (dialect == SqlDialect.SQLITE && ((code & 0xFF) == SQLITE_BUSY || (code & 0xFF) == SQLITE_LOCKED)) {
+                return true; // Extended result codes keep the primary code in the low byte
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sleeps before retry number {@code attempt + 1}, growing exponentially with jitter.
+     *
+     * @param attempt The number of the failed attempt, starting at 0.
+     * @throws SQLException If the thread was interrupted.
+     */
+    static void backoff(int attempt) throws SQLException {
+        long maxMillis = 10L << Math.min(attempt, 6);
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(maxMillis / 2, maxMillis + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying a transaction", e);
+        }
+    }
+
+    /**
+     * The isolation level of a transaction. SQLite transactions are always serializable, as all writes
+     * run on a single connection.
+     */
+    public enum Isolation {
+        /**
+         * The default level of the connection, REPEATABLE READ for MySQL.
+         */
+        DEFAULT(-1),
+        READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+        READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+        REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+        SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+        private final int level;
+
+        Isolation(int level) {
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.oresmash.smashengine.database;
+
+import com.oresmash.smashengine.database.DatabaseInterface.PreparedStatementConsumer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers write statements and flushes them with {@link DatabaseInterface#batch(Map)}, grouped by
+ * statement, once either the batch size or the flush interval is reached.
+ * <p>
+ * Statements are written in the order they were queued. Consecutive statements are grouped into one
+ * batch as long as every statement of that batch was queued in a single run, so a statement whose SQL
+ * was already used before a different one starts a new batch, and a flush writes its batches in order.
+ * <p>
+ * Batches that fail are put back in front of the queue and retried by the next periodic flush, so
+ * queued writes are never discarded. Flushes triggered by the batch size are paused until a flush
+ * succeeds again.
+ */
+public class WriteBehindQueue {
+    private final Sink sink;
+    private final int batchSize;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    private final Deque<Map<String, List<PreparedStatementConsumer>>> pending = new ArrayDeque<>();
+    private String lastQuery;
+    private int size;
+    private volatile boolean failing;
+
+    /**
+     * Creates a queue flushing into the given database.
+     *
+     * @param database The database to flush into.
+     * @param batchSize The number of queued statements that triggers a flush.
+     * @param flushIntervalMillis The maximum time a statement waits before it is flushed.
+     * @param logger The logger to report failed flushes to.
+     */
+    public WriteBehindQueue(DatabaseInterface database, int batchSize, long flushIntervalMillis, Logger logger) {
+        this(database::batch, batchSize, flushIntervalMillis, logger);
+    }
+
+    /**
+     * Creates a queue flushing into a sink.
+     *
+     * @param sink Writes the flushed batches.
+     * @param batchSize The number of queued statements that triggers a flush.
+     * @param flushIntervalMillis The maximum time a statement waits before it is flushed.
+     * @param logger The logger to report failed flushes to.
+     */
+    public WriteBehindQueue(Sink sink, int batchSize, long flushIntervalMillis, Logger logger) {
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SmashEngine Write-Behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a statement for the next flush.
+     *
+     * @param query The statement to execute.
+     * @param preparer Binds the statement parameters.
+     */
+    public void enqueue(String query, PreparedStatementConsumer preparer) {
+        boolean full;
+        synchronized (this) {
+            Map<String, List<PreparedStatementConsumer>> batch = pending.peekLast();
+            if (batch == null || (!query.equals(lastQuery) && batch.containsKey(query))) {
+                batch = new LinkedHashMap<>();
+                pending.addLast(batch);
+            }
+            batch.computeIfAbsent(query, key -> new ArrayList<>()).add(preparer);
+            lastQuery = query;
+            full = ++size >= batchSize;
+        }
+        if (full && !failing && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Returns the number of statements waiting for the next flush.
+     *
+     * @return The number of pending statements.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes all pending statements, one transaction per batch.
+     *
+     * @throws DatabaseException If a batch failed. That batch and the ones after it are queued again.
+     */
+    public void flush() throws DatabaseException {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            List<Map<String, List<PreparedStatementConsumer>>> batches;
+            synchronized (this) {
+                if (size == 0) return;
+                batches = new ArrayList<>(pending);
+                pending.clear();
+                lastQuery = null;
+                size = 0;
+            }
+            for (int i = 0; i < batches.size(); i++) {
+                try {
+                    sink.write(batches.get(i));
+                } catch (RuntimeException e) {
+                    requeue(batches.subList(i, batches.size()));
+                    failing = true;
+                    throw e;
+                }
+            }
+            failing = false;
+        }
+    }
+
+    /**
+     * Puts batches that could not be written back in front of the statements queued meanwhile.
+     */
+    private synchronized void requeue(List<Map<String, List<PreparedStatementConsumer>>> batches) {
+        if (pending.isEmpty()) {
+            Map<String, List<PreparedStatementConsumer>> last = batches.get(batches.size() - 1);
+            for (String query : last.keySet()) {
+                lastQuery = query;
+            }
+        }
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            Map<String, List<PreparedStatementConsumer>> batch = batches.get(i);
+            pending.addFirst(batch);
+            for (List<PreparedStatementConsumer> preparers : batch.values()) {
+                size += preparers.size();
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and writes everything that is still pending.
+     *
+     * @throws DatabaseException If the final flush failed.
+     */
+    public void close() throws DatabaseException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed to flush queued database writes, " + size() + " writes are kept for the next attempt", e);
+        }
+    }
+
+    /**
+     * Writes the batches flushed by a queue.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Writes a batch in a single transaction.
+         *
+         * @param batch The statements grouped by SQL, in the order they were first queued.
+         * @throws DatabaseException If the batch failed.
+         */
+        void write(Map<String, List<PreparedStatementConsumer>> batch) throws DatabaseException;
+    }
+}
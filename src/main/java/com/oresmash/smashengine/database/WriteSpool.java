@@ -0,0 +1,504 @@
+package com.oresmash.smashengine.database;
+
+import com.oresmash.smashengine.database.DatabaseInterface.PreparedStatementConsumer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only, memory-mapped file of write statements that could not be executed right away, replayed
+ * in order by a background thread once the database accepts writes again.
+ * <p>
+ * Appending only copies the statement into the mapping, so it takes microseconds no matter how the
+ * database is doing. Written records survive a crash of the server process, and are flushed to disk
+ * after every drain attempt. Pending records found on startup are replayed as well.
+ * <p>
+ * The file never grows beyond its capacity. Drained space is reclaimed by moving the pending records
+ * to the front of the file, and appends to a full spool are rejected.
+ * <p>
+ * Records that can never be replayed, because they are unreadable or the database rejects them, are
+ * moved to a dead-letter file next to the spool ({@code <file>.dead}) instead of being dropped. Each
+ * entry there holds the time, the error and the record in the spool format.
+ */
+public class WriteSpool {
+    private static final int MAGIC = 0x534D5350; // "SMSP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAX_DRAIN_BATCH = 500;
+    private static final long MIN_BACKOFF_MILLIS = 250L;
+    private static final long MAX_BACKOFF_MILLIS = 30_000L;
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Path deadLetterFile;
+    private final Sink sink;
+    private final Logger logger;
+    private final Thread drainer;
+    private final LongAdder spooled = new LongAdder();
+    private final LongAdder drained = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+
+    private int readOffset;
+    private int writeOffset;
+    private int pending;
+    private boolean dirty;
+    private volatile boolean healthy = true;
+    private volatile boolean running = true;
+
+    /**
+     * Opens or creates a spool file and starts draining it into a sink.
+     *
+     * @param file The spool file.
+     * @param capacity The size of the file in bytes.
+     * @param sink Executes drained records against the database.
+     * @param logger The logger to report failures to.
+     * @throws IOException If the file could not be opened or mapped.
+     */
+    public WriteSpool(Path file, int capacity, Sink sink, Logger logger) throws IOException {
+        this.deadLetterFile = file.resolveSibling(file.getFileName() + ".dead");
+        this.sink = sink;
+        this.logger = logger;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = (int) Math.max(capacity, Math.min(channel.size(), Integer.MAX_VALUE)); // Never shrink a file holding records
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+            readOffset = buffer.getInt(8);
+            writeOffset = buffer.getInt(12);
+            pending = buffer.getInt(16);
+            if (pending > 0) {
+                logger.warning("Replaying " + pending + " spooled database writes from " + file.getFileName());
+            }
+        } else {
+            readOffset = HEADER_SIZE;
+            writeOffset = HEADER_SIZE;
+            pending = 0;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writeHeader();
+        }
+
+        this.drainer = new Thread(this::drainLoop, "SmashEngine Write Spool");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Appends a statement to the spool.
+     *
+     * @param query The statement.
+     * @param preparer Binds the statement parameters, it is run right away.
+     * @throws DatabaseException If the statement cannot be spooled or the spool is full.
+     */
+    public void append(String query, PreparedStatementConsumer preparer) throws DatabaseException {
+        appendRecords(List.of(encode(query, preparer)));
+    }
+
+    /**
+     * Appends the statements of a batch to the spool, all or none of them. They are replayed in order,
+     * but not necessarily in a single transaction.
+     *
+     * @param statements The statements, each with the preparers of its rows.
+     * @throws DatabaseException If a statement cannot be spooled or the spool has no room for all of them.
+     */
+    public void append(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        List<byte[]> records = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<PreparedStatementConsumer>> entry : statements.entrySet()) {
+            for (PreparedStatementConsumer preparer : entry.getValue()) {
+                records.add(encode(entry.getKey(), preparer));
+            }
+        }
+        appendRecords(records);
+    }
+
+    private void appendRecords(List<byte[]> records) throws DatabaseException {
+        int bytes = 0;
+        for (byte[] record : records) {
+            bytes += record.length + 4;
+        }
+        synchronized (this) {
+            if (!reserve(bytes)) {
+                rejected.add(records.size());
+                throw new DatabaseException("The database write spool is full");
+            }
+            for (byte[] record : records) {
+                buffer.putInt(writeOffset, record.length);
+                buffer.put(writeOffset + 4, record);
+                writeOffset += record.length + 4;
+            }
+            pending += records.size();
+            dirty = true;
+            writeHeader();
+            notifyAll();
+        }
+        spooled.add(records.size());
+    }
+
+    /**
+     * Appends a statement only if earlier statements are still waiting, so that it is not executed
+     * before them.
+     *
+     * @param query The statement.
+     * @param preparer Binds the statement parameters.
+     * @return Whether the statement was spooled.
+     * @throws DatabaseException If the statement cannot be spooled or the spool is full.
+     */
+    public synchronized boolean appendIfPending(String query, PreparedStatementConsumer preparer) throws DatabaseException {
+        if (pending == 0) return false;
+        append(query, preparer);
+        return true;
+    }
+
+    /**
+     * Appends the statements of a batch only if earlier statements are still waiting, so that they are
+     * not executed before them.
+     *
+     * @param statements The statements, each with the preparers of its rows.
+     * @return Whether the statements were spooled.
+     * @throws DatabaseException If a statement cannot be spooled or the spool is full.
+     */
+    public synchronized boolean appendIfPending(Map<String, ? extends Collection<PreparedStatementConsumer>> statements) throws DatabaseException {
+        if (pending == 0) return false;
+        append(statements);
+        return true;
+    }
+
+    /**
+     * Returns whether statements are waiting to be replayed.
+     *
+     * @return True until the spool was drained.
+     */
+    public synchronized boolean hasPending() {
+        return pending > 0;
+    }
+
+    /**
+     * Waits until all statements spooled so far, and any spooled meanwhile, were replayed.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return Whether the spool was drained in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public synchronized boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (long remaining = timeoutMillis; pending > 0; remaining = deadline - System.currentTimeMillis()) {
+            if (remaining <= 0 || !running) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Moves a record the database rejected for good to the dead-letter file. Only called by the sink,
+     * on the drainer thread.
+     *
+     * @param entry The record.
+     * @param error Why it was rejected.
+     */
+    public void deadLetter(Entry entry, Throwable error) {
+        logger.log(Level.SEVERE, "Moving a spooled database write to " + deadLetterFile.getFileName()
+                + " after it failed permanently: " + entry.sql(), error);
+        try {
+            writeDeadLetter(encode(entry.sql(), entry.parameters()), error);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to encode a dead-lettered database write, it is lost", e);
+        }
+    }
+
+    /**
+     * Returns whether the last attempt to reach the database succeeded.
+     *
+     * @return False while the database is considered down.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Marks the database as down, so writes are spooled until the drainer reaches it again.
+     */
+    public void markUnhealthy() {
+        healthy = false;
+    }
+
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(pending, writeOffset - readOffset, buffer.capacity() - HEADER_SIZE, spooled.sum(),
+                    drained.sum(), rejected.sum(), deadLettered.sum(), healthy);
+        }
+    }
+
+    /**
+     * Stops the drainer and flushes the file. Records that were not drained yet stay in the file and
+     * are replayed the next time the spool is opened.
+     */
+    public void close() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            buffer.force();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close the database write spool", e);
+        }
+    }
+
+    private void drainLoop() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running) {
+            List<Entry> entries;
+            int[] ends;
+            synchronized (this) {
+                while (running && pending == 0) {
+                    if (dirty) {
+                        buffer.force();
+                        dirty = false;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) return;
+                int count = Math.min(pending, MAX_DRAIN_BATCH);
+                entries = new ArrayList<>(count);
+                ends = new int[count];
+                peek(entries, ends, count);
+                if (entries.isEmpty()) continue; // Only unreadable records, already set aside
+            }
+
+            int handled;
+            try {
+                handled = sink.write(entries);
+            } catch (SQLException e) {
+                if (healthy) {
+                    logger.log(Level.WARNING, "Database unavailable, spooling writes until it recovers", e);
+                }
+                healthy = false;
+                if (!sleep(backoff)) return;
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                continue;
+            } catch (RuntimeException e) {
+                // Keep the drainer alive, the records stay pending and are retried
+                logger.log(Level.SEVERE, "Failed to replay spooled database writes", e);
+                if (!sleep(backoff)) return;
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                continue;
+            }
+
+            boolean complete = handled == entries.size();
+            if (complete) {
+                if (!healthy) {
+                    logger.info("Database available again, replayed spooled writes");
+                }
+                healthy = true;
+                backoff = MIN_BACKOFF_MILLIS;
+            }
+            if (handled > 0) {
+                drained.add(handled);
+                synchronized (this) {
+                    advance(ends[handled - 1], handled);
+                    buffer.force();
+                    dirty = false;
+                }
+            }
+            if (!complete) {
+                // The rest failed on a transient error, e.g. a deadlock, retry it after a pause
+                if (!sleep(backoff)) return;
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Decodes the oldest pending records without removing them. Unreadable records at the head of the
+     * spool, e.g. after a torn write on power loss, are moved to the dead-letter file right away, an
+     * unreadable record after readable ones ends the batch.
+     *
+     * @param entries Receives the records.
+     * @param ends Receives the offset after each record.
+     * @param count The maximum number of records to decode.
+     */
+    private void peek(List<Entry> entries, int[] ends, int count) {
+        int offset = readOffset;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt(offset);
+            byte[] record = new byte[length];
+            buffer.get(offset + 4, record);
+            try {
+                entries.add(decode(record));
+            } catch (IOException e) {
+                if (!entries.isEmpty()) return;
+                logger.log(Level.SEVERE, "Moving an unreadable spooled database write to " + deadLetterFile.getFileName(), e);
+                writeDeadLetter(record, e);
+                advance(offset + length + 4, 1);
+                dirty = true;
+                offset = readOffset;
+                continue;
+            }
+            offset += length + 4;
+            ends[entries.size() - 1] = offset;
+        }
+    }
+
+    /**
+     * Removes the oldest records, waking threads waiting for the spool to drain once it is empty.
+     */
+    private void advance(int offset, int count) {
+        readOffset = offset;
+        pending -= count;
+        if (pending == 0) {
+            readOffset = HEADER_SIZE;
+            writeOffset = HEADER_SIZE;
+            notifyAll();
+        }
+        writeHeader();
+    }
+
+    private void writeDeadLetter(byte[] record, Throwable error) {
+        String reason = String.valueOf(error);
+        if (reason.length() > MAX_REASON_LENGTH) {
+            reason = reason.substring(0, MAX_REASON_LENGTH);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(deadLetterFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(reason);
+            out.writeInt(record.length);
+            out.write(record);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to write to " + deadLetterFile.getFileName() + ", the database write is lost", e);
+        }
+        deadLettered.increment();
+    }
+
+    private boolean reserve(int bytes) {
+        if (writeOffset + bytes <= buffer.capacity()) return true;
+        if (readOffset == HEADER_SIZE || (writeOffset - readOffset) + HEADER_SIZE + bytes > buffer.capacity()) {
+            return false;
+        }
+        // Move the pending records to the front to reclaim the drained space
+        byte[] pendingRecords = new byte[writeOffset - readOffset];
+        buffer.get(readOffset, pendingRecords);
+        buffer.put(HEADER_SIZE, pendingRecords);
+        writeOffset = HEADER_SIZE + (writeOffset - readOffset);
+        readOffset = HEADER_SIZE;
+        return true;
+    }
+
+    private void writeHeader() {
+        buffer.putInt(8, readOffset);
+        buffer.putInt(12, writeOffset);
+        buffer.putInt(16, pending);
+    }
+
+    private static byte[] encode(String query, PreparedStatementConsumer preparer) throws DatabaseException {
+        try {
+            return encode(query, BoundParameters.capture(preparer));
+        } catch (SQLException | IOException e) {
+            throw new DatabaseException("Unable to spool statement " + query, e);
+        }
+    }
+
+    private static byte[] encode(String query, BoundParameters parameters) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + query.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] sql = query.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(sql.length);
+        out.write(sql);
+        parameters.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte[] sql = new byte[in.readInt()];
+        in.readFully(sql);
+        return new Entry(new String(sql, StandardCharsets.UTF_8), BoundParameters.readFrom(in));
+    }
+
+    private synchronized boolean sleep(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            for (long remaining = millis; running && remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+                wait(remaining); // Woken by appends as well, and early by close()
+            }
+            return running;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A spooled statement.
+     *
+     * @param sql The statement.
+     * @param parameters The parameters to bind.
+     */
+    public record Entry(String sql, BoundParameters parameters) {
+    }
+
+    /**
+     * Executes drained records against the database.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Executes records in order, stopping at the first one that failed on a transient error. Records
+         * that fail for good should be passed to {@link #deadLetter(Entry, Throwable)}.
+         *
+         * @param entries The records.
+         * @return The number of leading records that were written or set aside. The others are retried
+         * after a pause.
+         * @throws SQLException If the database could not be reached, all records are then retried later.
+         */
+        int write(List<Entry> entries) throws SQLException;
+    }
+
+    /**
+     * The state of a spool.
+     *
+     * @param pending Records waiting to be replayed.
+     * @param usedBytes Bytes taken up by the pending records.
+     * @param capacityBytes Bytes available for records.
+     * @param spooled Records appended since startup.
+     * @param drained Records replayed or discarded since startup.
+     * @param rejected Records rejected because the spool was full.
+     * @param deadLettered Records moved to the dead-letter file since startup.
+     * @param healthy Whether the database was reachable on the last attempt.
+     */
+    public record Stats(int pending, long usedBytes, long capacityBytes, long spooled, long drained, long rejected, long deadLettered,
+                        boolean healthy) {
+    }
+}
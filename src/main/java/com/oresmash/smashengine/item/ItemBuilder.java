@@ -1,9 +1,8 @@
 package com.oresmash.smashengine.item;
 
 import com.destroystokyo.paper.profile.PlayerProfile;
-import com.destroystokyo.paper.profile.ProfileProperty;
+import com.oresmash.smashengine.utils.GlyphWidths;
 import net.kyori.adventure.text.Component;
-import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.inventory.ItemFlag;
@@ -13,7 +12,6 @@ import org.bukkit.inventory.meta.SkullMeta;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 import static com.oresmash.smashengine.SmashEngine.textUtils;
 
@@ -47,6 +45,17 @@ public class ItemBuilder {
         return this;
     }
 
+    /**
+     * Sets the display name of the item to an already colorized component.
+     *
+     * @param name The display name to set.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder name(Component name) {
+        meta.displayName(name);
+        return this;
+    }
+
     /**
      * Adds a line of lore to the item.
      *
@@ -58,6 +67,17 @@ public class ItemBuilder {
         return this;
     }
 
+    /**
+     * Adds an already colorized line of lore to the item.
+     *
+     * @param line The lore line to add.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder lore(Component line) {
+        lore.add(line);
+        return this;
+    }
+
     /**
      * Adds multiple lines of lore to the item.
      *
@@ -69,6 +89,52 @@ public class ItemBuilder {
         return this;
     }
 
+    /**
+     * Adds a text as lore, wrapped to lines that fit on screen.
+     *
+     * @param text The text to add, line breaks in it are kept.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder wrappedLore(String text) {
+        return wrappedLore(text, GlyphWidths.DEFAULT_LORE_WIDTH);
+    }
+
+    /**
+     * Adds a text as lore, wrapped to lines no wider than a maximum width.
+     *
+     * @param text The text to add, line breaks in it are kept.
+     * @param maxWidth The maximum width of a line in pixels.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder wrappedLore(String text, int maxWidth) {
+        lore.addAll(textUtils.wrap(text, maxWidth));
+        return this;
+    }
+
+    /**
+     * Adds an already colorized text as lore, wrapped to lines no wider than the default lore width. Use
+     * this for texts with player names or numbers in them, colorized with
+     * {@link com.oresmash.smashengine.utils.TextUtils#colorizeUncached(String)} or a template.
+     *
+     * @param text The colorized text to add, line breaks in it are kept.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder wrappedLore(Component text) {
+        return wrappedLore(text, GlyphWidths.DEFAULT_LORE_WIDTH);
+    }
+
+    /**
+     * Adds an already colorized text as lore, wrapped to lines no wider than a maximum width.
+     *
+     * @param text The colorized text to add, line breaks in it are kept.
+     * @param maxWidth The maximum width of a line in pixels.
+     * @return The ItemBuilder instance.
+     */
+    public ItemBuilder wrappedLore(Component text, int maxWidth) {
+        lore.addAll(GlyphWidths.wrap(text, maxWidth));
+        return this;
+    }
+
     /**
      * Sets the amount of the item.
      *
@@ -136,7 +202,7 @@ public class ItemBuilder {
     }
 
     /**
-     * Sets the custom texture for a player head item.
+     * Sets the custom texture for a player head item. The profile is cached per texture, see {@link SkullCache}.
      *
      * @param texture The texture to set.
      * @return The ItemBuilder instance.
@@ -144,17 +210,15 @@ public class ItemBuilder {
     public ItemBuilder texture(String texture) {
         if (item.getType() == Material.PLAYER_HEAD) {
             if (meta instanceof SkullMeta skullMeta) {
-                UUID randomUUID = UUID.randomUUID();
-                PlayerProfile profile = Bukkit.createProfile(randomUUID, null);
-                profile.getProperties().add(new ProfileProperty("textures", texture));
-                skullMeta.setPlayerProfile(profile);
+                skullMeta.setPlayerProfile(SkullCache.textureProfile(texture));
             }
         }
         return this;
     }
 
     /**
-     * Sets the owner of the player head item.
+     * Sets the owner of the player head item. Uses the owner's profile from {@link SkullCache} if it was
+     * fetched already, and fetches it in the background otherwise.
      *
      * @param owner The owner to set.
      * @return The ItemBuilder instance.
@@ -162,7 +226,13 @@ public class ItemBuilder {
     public ItemBuilder owner(OfflinePlayer owner) {
         if (item.getType() == Material.PLAYER_HEAD) {
             if (meta instanceof SkullMeta skullMeta) {
-                skullMeta.setOwningPlayer(owner);
+                PlayerProfile profile = SkullCache.ownerProfile(owner);
+                if (profile != null) {
+                    skullMeta.setPlayerProfile(profile);
+                } else {
+                    skullMeta.setOwningPlayer(owner);
+                    SkullCache.prewarm(owner); // Later heads of this player use the completed profile
+                }
             }
         }
         return this;
@@ -0,0 +1,243 @@
+package com.oresmash.smashengine.item;
+
+import com.oresmash.smashengine.database.DatabaseExecutor;
+import com.oresmash.smashengine.database.DatabaseInterface;
+import com.oresmash.smashengine.database.SqlDialect;
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.ItemStack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores arrays of items, such as inventory contents, as a single compressed blob.
+ * <p>
+ * Items are serialized with {@link ItemStack#serializeAsBytes()}, so they are upgraded by the server when
+ * read by a newer Minecraft version. Stacks that only differ in their amount are stored once: the blob
+ * holds a palette of distinct items and one palette reference and amount per slot, and the whole body is
+ * deflated. A filled vault of mostly identical items then takes a fraction of the space of its YAML form.
+ * <p>
+ * The server gzips every serialized item on its own, which hides what palette items have in common from
+ * the deflated body. Items are therefore stored uncompressed since version 2 and gzipped again before
+ * they are deserialized. Version 1 blobs, holding the gzipped items, are still read.
+ * <p>
+ * A blob starts with an uncompressed header holding a magic number, the format version, the data version
+ * of the server that wrote it and the number of slots.
+ */
+public final class ItemCodec {
+    private static final int MAGIC = 0x534D4943; // "SMIC"
+    private static final byte VERSION = 2;
+
+    private ItemCodec() {
+    }
+
+    /**
+     * Encodes items.
+     *
+     * @param items The items, null and air stand for empty slots.
+     * @return The encoded items.
+     */
+    public static byte[] encode(ItemStack[] items) {
+        Map<ItemStack, Integer> palette = new LinkedHashMap<>();
+        int[] references = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            ItemStack item = items[i];
+            if (item == null || item.getType().isAir()) continue;
+            ItemStack single = item.getAmount() == 1 ? item : item.asQuantity(1);
+            references[i] = palette.computeIfAbsent(single, key -> palette.size() + 1);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + 64 * palette.size());
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            header.writeInt(Bukkit.getUnsafe().getDataVersion());
+            header.writeInt(items.length);
+
+            DataOutputStream body = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 8192));
+            writeVarInt(body, palette.size());
+            for (ItemStack item : palette.keySet()) {
+                byte[] serialized = gunzip(item.serializeAsBytes());
+                writeVarInt(body, serialized.length);
+                body.write(serialized);
+            }
+            for (int i = 0; i < items.length; i++) {
+                writeVarInt(body, references[i]);
+                if (references[i] != 0) {
+                    writeVarInt(body, items[i].getAmount());
+                }
+            }
+            body.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen when writing to memory
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes items encoded by {@link #encode(ItemStack[])}.
+     *
+     * @param data The encoded items.
+     * @return The items, with null for empty slots.
+     * @throws IllegalArgumentException If the data is not encoded items or was written by a newer server.
+     */
+    public static ItemStack[] decode(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+            if (data.length < 13 || header.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not encoded items");
+            }
+            byte version = header.readByte();
+            if (version < 1 || version > VERSION) {
+                throw new IllegalArgumentException("Unsupported item encoding version " + version);
+            }
+            int dataVersion = header.readInt();
+            if (dataVersion > Bukkit.getUnsafe().getDataVersion()) {
+                throw new IllegalArgumentException("Items were written by a newer server, data version " + dataVersion);
+            }
+            ItemStack[] items = new ItemStack[header.readInt()];
+
+            DataInputStream body = new DataInputStream(new InflaterInputStream(header, inflater, 8192));
+            ItemStack[] palette = new ItemStack[readVarInt(body)];
+            for (int i = 0; i < palette.length; i++) {
+                byte[] serialized = new byte[readVarInt(body)];
+                body.readFully(serialized);
+                palette[i] = ItemStack.deserializeBytes(gzip(serialized));
+            }
+            for (int i = 0; i < items.length; i++) {
+                int reference = readVarInt(body);
+                if (reference == 0) continue;
+                items[i] = palette[reference - 1].asQuantity(readVarInt(body));
+            }
+            return items;
+        } catch (IOException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException("Corrupted item data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean isGzip(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xFF) == 0x1F && (bytes[1] & 0xFF) == 0x8B;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        if (!isGzip(bytes)) return bytes;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        if (isGzip(bytes)) return bytes; // Written by version 1, NBT itself never starts like this
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserts or replaces the items stored for a key.
+     *
+     * @param database The database to write to.
+     * @param table The table, with a unique key column and a BLOB column.
+     * @param keyColumn The key column.
+     * @param dataColumn The BLOB column.
+     * @param key The key, e.g. a player UUID as a string.
+     * @param items The items.
+     */
+    public static void save(DatabaseInterface database, String table, String keyColumn, String dataColumn, Object key, ItemStack[] items) {
+        saveAll(database, table, keyColumn, dataColumn, Map.of(key, items));
+    }
+
+    /**
+     * Inserts or replaces the items stored for many keys in a single batch.
+     *
+     * @param database The database to write to.
+     * @param table The table, with a unique key column and a BLOB column.
+     * @param keyColumn The key column.
+     * @param dataColumn The BLOB column.
+     * @param items The items by key.
+     */
+    public static void saveAll(DatabaseInterface database, String table, String keyColumn, String dataColumn, Map<?, ItemStack[]> items) {
+        List<Map<String, Object>> rows = new ArrayList<>(items.size());
+        items.forEach((key, contents) -> {
+            Map<String, Object> row = new HashMap<>(4);
+            row.put(keyColumn, key);
+            row.put(dataColumn, encode(contents));
+            rows.add(row);
+        });
+        database.upsert(table, List.of(keyColumn), rows);
+    }
+
+    /**
+     * Loads the items stored for a key.
+     *
+     * @param database The database to read from.
+     * @param table The table.
+     * @param keyColumn The key column.
+     * @param dataColumn The BLOB column.
+     * @param key The key.
+     * @return The items, or null if nothing is stored for the key.
+     */
+    public static ItemStack[] load(DatabaseInterface database, String table, String keyColumn, String dataColumn, Object key) {
+        SqlDialect dialect = database.getDialect();
+        List<byte[]> blobs = database.query(
+                "SELECT " + dialect.quote(dataColumn) + " FROM " + dialect.quote(table) + " WHERE " + dialect.quote(keyColumn) + " = ?",
+                ps -> ps.setObject(1, key),
+                rs -> rs.getBytes(1));
+        return blobs.isEmpty() || blobs.get(0) == null ? null : decode(blobs.get(0));
+    }
+
+    /**
+     * Executes {@link #load(DatabaseInterface, String, String, String, Object)} on the {@link DatabaseExecutor},
+     * decoding the items there as well.
+     *
+     * @return A future completed with the items, or null if nothing is stored for the key.
+     */
+    public static CompletableFuture<ItemStack[]> loadAsync(DatabaseInterface database, String table, String keyColumn, String dataColumn, Object key) {
+        return CompletableFuture.supplyAsync(() -> load(database, table, keyColumn, dataColumn, key), DatabaseExecutor.get());
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+}
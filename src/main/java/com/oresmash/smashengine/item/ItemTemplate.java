@@ -0,0 +1,260 @@
+package com.oresmash.smashengine.item;
+
+import com.oresmash.smashengine.utils.TextTemplate;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * An item built once and handed out as copies, for items that are created over and over again such as
+ * menu decorations and rewards.
+ * <p>
+ * Creating an item only clones the prebuilt stack. Names and lore with PlaceholderAPI placeholders are
+ * kept as {@link TextTemplate}s and bound when an item is created for a player; that costs one meta
+ * round trip, but only for templates that actually have placeholders.
+ * <p>
+ * Templates are immutable and may be shared between threads.
+ */
+public final class ItemTemplate {
+    private static final Map<Material, ItemTemplate> BLANKS = new ConcurrentHashMap<>();
+    private static final Map<ConfigurationSection, ItemTemplate> SECTIONS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ItemStack prototype;
+    private final TextTemplate name;
+    private final List<TextTemplate> lore;
+
+    private ItemTemplate(ItemStack prototype, TextTemplate name, List<TextTemplate> lore) {
+        this.prototype = prototype;
+        this.name = name;
+        this.lore = lore;
+    }
+
+    /**
+     * Creates a template of the item a builder currently describes.
+     *
+     * @param builder The builder, it may be changed afterward without affecting the template.
+     * @return The template.
+     */
+    public static ItemTemplate of(ItemBuilder builder) {
+        return of(builder.build());
+    }
+
+    /**
+     * Creates a template of an item.
+     *
+     * @param item The item, it may be changed afterward without affecting the template.
+     * @return The template.
+     */
+    public static ItemTemplate of(ItemStack item) {
+        return new ItemTemplate(item.clone(), null, null);
+    }
+
+    /**
+     * Returns the template of an item section, compiling it on first use. Templates are cached per
+     * section instance, so a reloaded config gets new templates; sections changed in place are not
+     * picked up.
+     *
+     * @param section The item section.
+     * @return The template.
+     * @throws IllegalArgumentException If the section has an unknown material.
+     * @see #compile(ConfigurationSection)
+     */
+    public static ItemTemplate of(ConfigurationSection section) {
+        ItemTemplate template = SECTIONS.get(section);
+        if (template == null) {
+            template = compile(section);
+            SECTIONS.put(section, template);
+        }
+        return template;
+    }
+
+    /**
+     * Returns the template of an item section like {@link #of(ConfigurationSection)}, but compiles it
+     * wherever the returned supplier is called. Sections are not safe to read from other threads, so if
+     * the section was not compiled before, its values are copied right away and the supplier compiles
+     * the copy, caching the template for the original section.
+     *
+     * @param section The item section, only read by this call.
+     * @return Returns the template, may be called on any thread.
+     */
+    public static Supplier<ItemTemplate> detached(ConfigurationSection section) {
+        ItemTemplate cached = SECTIONS.get(section);
+        if (cached != null) {
+            return () -> cached;
+        }
+        ConfigurationSection copy = copy(section);
+        return () -> {
+            ItemTemplate template = SECTIONS.get(section);
+            if (template == null) {
+                template = compile(copy);
+                SECTIONS.put(section, template);
+            }
+            return template;
+        };
+    }
+
+    private static ConfigurationSection copy(ConfigurationSection section) {
+        MemoryConfiguration copy = new MemoryConfiguration();
+        section.getValues(true).forEach((path, value) -> {
+            if (value instanceof ConfigurationSection) return; // Created by the values below it
+            copy.set(path, value instanceof List<?> list ? new ArrayList<>(list) : value);
+        });
+        return copy;
+    }
+
+    /**
+     * Compiles an item section without caching it. The section may contain {@code material},
+     * {@code display}, {@code lore}, {@code glow}, {@code hideflags} and {@code texture}, as menu
+     * contents do.
+     *
+     * @param section The item section.
+     * @return The template.
+     * @throws IllegalArgumentException If the section has an unknown material.
+     */
+    public static ItemTemplate compile(ConfigurationSection section) {
+        String materialName = section.getString("material", "PAPER");
+        Material material = Material.getMaterial(materialName);
+        if (material == null) {
+            throw new IllegalArgumentException("Unknown material " + materialName + " in " + section.getCurrentPath());
+        }
+
+        TextTemplate name = TextTemplate.of(section.getString("display", "Unnamed Item"));
+        List<TextTemplate> lore = new ArrayList<>();
+        boolean dynamic = !name.isStatic();
+        for (String line : section.getStringList("lore")) {
+            TextTemplate template = TextTemplate.of(line);
+            dynamic |= !template.isStatic();
+            lore.add(template);
+        }
+
+        // Placeholders are left unresolved in the prototype, they are bound when creating for a player
+        ItemBuilder builder = new ItemBuilder(material)
+                .name(name.bind(UnaryOperator.identity()))
+                .glow(section.getBoolean("glow", false))
+                .hideflags(section.getBoolean("hideflags", false));
+        for (TextTemplate line : lore) {
+            builder.lore(line.bind(UnaryOperator.identity()));
+        }
+        if (section.contains("texture")) {
+            builder.texture(section.getString("texture"));
+        }
+        return dynamic ? new ItemTemplate(builder.build(), name, List.copyOf(lore)) : new ItemTemplate(builder.build(), null, null);
+    }
+
+    /**
+     * Returns a template of an item named with a single space, as used to fill and border menus.
+     *
+     * @param material The material.
+     * @return The shared template.
+     */
+    public static ItemTemplate blank(Material material) {
+        return BLANKS.computeIfAbsent(material, key -> of(new ItemBuilder(key).name(" ")));
+    }
+
+    /**
+     * Creates an item. Placeholders, if any, are left unresolved.
+     *
+     * @return A new item.
+     */
+    public ItemStack create() {
+        return prototype.clone();
+    }
+
+    /**
+     * Creates an item with a different amount.
+     *
+     * @param amount The amount.
+     * @return A new item.
+     */
+    public ItemStack create(int amount) {
+        ItemStack item = prototype.clone();
+        item.setAmount(amount);
+        return item;
+    }
+
+    /**
+     * Creates an item with the placeholders in its name and lore resolved for a player.
+     *
+     * @param player The player to resolve the placeholders for.
+     * @return A new item.
+     */
+    public ItemStack create(OfflinePlayer player) {
+        return create(TextTemplate.resolver(player));
+    }
+
+    /**
+     * Creates an item with the placeholders in its name and lore resolved by a custom resolver.
+     *
+     * @param resolver Returns the value of a placeholder, given including its percent signs.
+     * @return A new item.
+     */
+    public ItemStack create(UnaryOperator<String> resolver) {
+        ItemStack item = prototype.clone();
+        if (isStatic()) return item;
+
+        ItemMeta meta = item.getItemMeta();
+        meta.displayName(name.bind(resolver));
+        List<Component> boundLore = new ArrayList<>(lore.size());
+        for (TextTemplate line : lore) {
+            boundLore.add(line.bind(resolver));
+        }
+        meta.lore(boundLore);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    /**
+     * Creates an item with a different amount and the placeholders resolved for a player.
+     *
+     * @param player The player to resolve the placeholders for.
+     * @param amount The amount.
+     * @return A new item.
+     */
+    public ItemStack create(OfflinePlayer player, int amount) {
+        ItemStack item = create(player);
+        item.setAmount(amount);
+        return item;
+    }
+
+    /**
+     * Returns whether the name and lore have no placeholders, so every created item is the same.
+     *
+     * @return Whether the template is static.
+     */
+    public boolean isStatic() {
+        return name == null;
+    }
+
+    /**
+     * Returns the placeholders in the name and lore.
+     *
+     * @return The placeholders, including their percent signs.
+     */
+    public Set<String> getPlaceholders() {
+        if (isStatic()) return Set.of();
+        Set<String> placeholders = new LinkedHashSet<>(name.getPlaceholders());
+        for (TextTemplate line : lore) {
+            placeholders.addAll(line.getPlaceholders());
+        }
+        return Collections.unmodifiableSet(placeholders);
+    }
+
+    public Material getType() {
+        return prototype.getType();
+    }
+}
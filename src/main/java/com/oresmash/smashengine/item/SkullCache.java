@@ -0,0 +1,178 @@
+package com.oresmash.smashengine.item;
+
+import com.destroystokyo.paper.profile.PlayerProfile;
+import com.destroystokyo.paper.profile.ProfileProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.inventory.ItemStack;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the profiles and items of player heads.
+ * <p>
+ * A head with a custom texture gets a profile whose UUID is derived from the texture, so the same
+ * texture always gives the same profile. The profile is built once, and clients recognize the head and
+ * reuse the skin they already downloaded. Completed owner profiles can be fetched ahead of time, off
+ * the main thread, so that building an owned head never waits for a profile lookup. Failed lookups are
+ * remembered for a few minutes, so unknown players are not looked up again on every head.
+ */
+public final class SkullCache {
+    private static final Cache<String, PlayerProfile> TEXTURE_PROFILES = CacheBuilder.newBuilder().maximumSize(2_000).build();
+    private static final Cache<String, ItemStack> HEADS = CacheBuilder.newBuilder().maximumSize(500).build();
+    private static final Cache<UUID, PlayerProfile> OWNER_PROFILES = CacheBuilder.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(30, TimeUnit.MINUTES) // Players change their skins
+            .build();
+    private static final Cache<UUID, Boolean> FAILED_LOOKUPS = CacheBuilder.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterWrite(5, TimeUnit.MINUTES) // Don't hammer the session server for unknown players
+            .build();
+    private static final Map<UUID, CompletableFuture<PlayerProfile>> LOOKUPS = new ConcurrentHashMap<>();
+
+    private static ExecutorService executor;
+    private static boolean shutdown;
+
+    private SkullCache() {
+    }
+
+    /**
+     * Returns the profile of a custom head texture. The returned profile is shared and must not be changed.
+     *
+     * @param texture The base64 texture value.
+     * @return The profile.
+     */
+    public static PlayerProfile textureProfile(String texture) {
+        try {
+            return TEXTURE_PROFILES.get(texture, () -> {
+                UUID id = UUID.nameUUIDFromBytes(texture.getBytes(StandardCharsets.UTF_8));
+                PlayerProfile profile = Bukkit.createProfile(id, null);
+                profile.getProperties().add(new ProfileProperty("textures", texture));
+                return profile;
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to create the profile of texture " + texture, e.getCause());
+        }
+    }
+
+    /**
+     * Returns a head with a custom texture.
+     *
+     * @param texture The base64 texture value.
+     * @return A new head item.
+     */
+    public static ItemStack head(String texture) {
+        try {
+            return HEADS.get(texture, () -> new ItemBuilder(Material.PLAYER_HEAD).texture(texture).build()).clone();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to create the head of texture " + texture, e.getCause());
+        }
+    }
+
+    /**
+     * Returns the completed profile of a player if it was fetched before and has not expired.
+     *
+     * @param owner The player.
+     * @return The profile with textures, or null if it is not cached.
+     */
+    public static PlayerProfile ownerProfile(OfflinePlayer owner) {
+        return OWNER_PROFILES.getIfPresent(owner.getUniqueId());
+    }
+
+    /**
+     * Fetches the profile of a player with textures, off the main thread, so heads of that player can
+     * be built without a lookup.
+     *
+     * @param owner The player.
+     * @return The completed profile, or a failed future if it could not be fetched, the lookup failed
+     * recently or the cache was shut down.
+     */
+    public static CompletableFuture<PlayerProfile> prewarm(OfflinePlayer owner) {
+        PlayerProfile cached = ownerProfile(owner);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        UUID id = owner.getUniqueId();
+        if (FAILED_LOOKUPS.getIfPresent(id) != null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No profile found for " + id + " recently"));
+        }
+        ExecutorService executor = executor();
+        if (executor == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Profile lookups were shut down"));
+        }
+        CompletableFuture<PlayerProfile> lookup = LOOKUPS.computeIfAbsent(id, key -> CompletableFuture.supplyAsync(() -> {
+            PlayerProfile profile = Bukkit.createProfile(id, owner.getName());
+            if (!profile.complete(true) || !profile.hasTextures()) {
+                throw new IllegalStateException("No profile found for " + id);
+            }
+            OWNER_PROFILES.put(id, profile);
+            return profile;
+        }, executor));
+        lookup.whenComplete((profile, error) -> {
+            if (error != null) {
+                FAILED_LOOKUPS.put(id, Boolean.TRUE);
+            }
+            LOOKUPS.remove(id, lookup);
+        });
+        return lookup;
+    }
+
+    /**
+     * Fetches the profiles of several players, e.g. everyone a leaderboard menu is about to show.
+     *
+     * @param owners The players.
+     * @return A future completed once every lookup finished, whether it succeeded or not.
+     */
+    public static CompletableFuture<Void> prewarm(Collection<? extends OfflinePlayer> owners) {
+        return CompletableFuture.allOf(owners.stream()
+                .map(owner -> prewarm(owner).exceptionally(e -> null))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Stops the profile lookups, lookups still running are abandoned and later lookups fail right away.
+     */
+    public static synchronized void shutdown() {
+        shutdown = true;
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * Returns the lookup pool, starting it on first use, or null once the cache was shut down.
+     */
+    private static synchronized ExecutorService executor() {
+        if (shutdown) return null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(2, task -> {
+                Thread thread = new Thread(task, "SmashEngine Profile Lookup");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Forgets all cached profiles and heads, and which lookups failed.
+     */
+    public static void invalidateAll() {
+        TEXTURE_PROFILES.invalidateAll();
+        HEADS.invalidateAll();
+        OWNER_PROFILES.invalidateAll();
+        FAILED_LOOKUPS.invalidateAll();
+    }
+}
@@ -2,8 +2,8 @@ package com.oresmash.smashengine.menu;
 
 import com.oresmash.smashengine.SmashEngine;
 import com.oresmash.smashengine.item.ItemBuilder;
+import com.oresmash.smashengine.item.ItemTemplate;
 import lombok.Getter;
-import me.clip.placeholderapi.PlaceholderAPI;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.Sound;
@@ -16,13 +16,24 @@ import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
 
 import static com.oresmash.smashengine.SmashEngine.textUtils;
 
+/**
+ * A chest menu. Slots written through {@link #setItem(int, ItemStack)} are rendered as a diff: all writes
+ * made during a tick are applied together at the end of it, and only to slots whose item actually
+ * differs from what the inventory holds. {@link #fill(ItemStack)}, {@link #border(ItemStack)} and writes
+ * straight to {@link #getInventory()} apply right away; {@link #getInventory()} applies pending writes
+ * first, so direct writes are never overwritten by older ones.
+ */
 public abstract class MenuHandler implements InventoryHolder {
     private final Inventory inventory;
+    private final ItemStack[] pending;
+    private final BitSet dirty = new BitSet();
+    private boolean flushScheduled;
     @Getter
     private final int rows;
     @Getter
@@ -39,68 +50,33 @@ public abstract class MenuHandler implements InventoryHolder {
             this.rows = rows;
         }
         this.inventory = Bukkit.createInventory(this, this.rows * 9, textUtils.colorize(title));
+        this.pending = new ItemStack[inventory.getSize()];
     }
 
     public MenuHandler(Player player, ConfigurationSection configSection) {
-        this(
-                player,
-                configSection.getString("title", "Menu"),
-                configSection.getInt("rows", 6)
-        );
-        setupFromConfig(configSection);
-    }
-
-    private void setupFromConfig(ConfigurationSection configSection) {
-        if (configSection.contains("filler")) {
-            Material fillerMaterial = Material.getMaterial(configSection.getString("filler"));
-            if (fillerMaterial != null) {
-                ItemStack fillerItem = new ItemBuilder(fillerMaterial).name(" ").build();
-                fill(fillerItem);
-            }
-        }
+        this(player, MenuSnapshot.create(player, configSection));
+    }
 
-        if (configSection.contains("border")) {
-            Material borderMaterial = Material.getMaterial(configSection.getString("border"));
-            if (borderMaterial != null) {
-                ItemStack borderItem = new ItemBuilder(borderMaterial).name(" ").build();
-                border(borderItem);
-            }
+    /**
+     * Creates a config menu from contents prepared with {@link MenuSnapshot#prepare(Player, ConfigurationSection)}.
+     * Must be called on the main thread.
+     *
+     * @param player The player the menu is for.
+     * @param snapshot The prepared contents.
+     * @throws IllegalArgumentException If the snapshot was prepared for another player.
+     */
+    public MenuHandler(Player player, MenuSnapshot snapshot) {
+        this(player, snapshot.getTitle(), snapshot.getRows());
+        if (!player.getUniqueId().equals(snapshot.getPlayer().getUniqueId())) {
+            throw new IllegalArgumentException("The menu snapshot was prepared for " + snapshot.getPlayer().getName()
+                    + ", not for " + player.getName());
         }
-
-        ConfigurationSection contentsSection = configSection.getConfigurationSection("contents");
-        if (contentsSection != null) {
-            for (String key : contentsSection.getKeys(false)) {
-                ConfigurationSection itemSection = contentsSection.getConfigurationSection(key);
-                if (itemSection == null) continue;
-
-                int slot = Integer.parseInt(key);
-                Material material = Material.getMaterial(itemSection.getString("material", "PAPER"));
-                if (material == null) continue;
-
-                String name = itemSection.getString("display", "Unnamed Item");
-                List<String> lore = itemSection.getStringList("lore");
-
-                // PlaceholderAPI replacements
-                if (Bukkit.getPluginManager().getPlugin("PlaceholderAPI") != null) {
-                    name = PlaceholderAPI.setPlaceholders(player, name);
-                    lore = lore.stream().map(line -> PlaceholderAPI.setPlaceholders(player, line)).collect(Collectors.toList());
-                }
-
-                ItemBuilder itemBuilder = new ItemBuilder(material)
-                        .name(name)
-                        .lore(lore)
-                        .glow(itemSection.getBoolean("glow", false))
-                        .hideflags(itemSection.getBoolean("hideflags", false));
-
-                if (itemSection.contains("texture")) {
-                    itemBuilder.texture(itemSection.getString("texture"));
-                }
-
-                ItemStack itemStack = itemBuilder.build();
-                itemStack = editItem(itemStack, slot, itemSection);
-                getInventory().setItem(slot, itemStack);
-            }
+        for (int slot = 0; slot < Math.min(pending.length, snapshot.getSize()); slot++) {
+            ItemStack item = snapshot.createItem(slot);
+            ConfigurationSection itemSection = snapshot.getSection(slot);
+            setItem(slot, itemSection == null ? item : editItem(item, slot, itemSection));
         }
+        flushChanges();
     }
 
     public abstract void onClick(InventoryClickEvent event);
@@ -109,15 +85,95 @@ public abstract class MenuHandler implements InventoryHolder {
 
     public void open(Player player) {
         setContents();
+        flushChanges(); // The window opens with its contents instead of filling in a tick later
         player.openInventory(this.inventory);
     }
 
+    /**
+     * Applies pending slot changes right away, sending only the slots that changed.
+     *
+     * @see #flushChanges()
+     */
     public void update() {
+        flushChanges();
+    }
+
+    /**
+     * Applies pending slot changes and resends the player's whole inventory, e.g. after the client was
+     * left showing items that differ from the server, like after a cancelled click. Costs a packet for
+     * every slot, so prefer {@link #update()}.
+     */
+    public void resync() {
+        flushChanges();
         player.updateInventory();
     }
 
+    /**
+     * Applies pending slot changes right away instead of at the end of the tick, without resending the
+     * whole inventory. The server sends the changed slots to viewers by itself.
+     */
+    public void flushChanges() {
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            ItemStack item = pending[slot];
+            pending[slot] = null;
+            writeThrough(slot, item);
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Shows an item in a slot. The change is applied at the end of the tick, and only if the slot does
+     * not show an equal item already.
+     *
+     * @param slot The slot.
+     * @param item The item, or null to empty the slot.
+     */
+    public void setItem(int slot, ItemStack item) {
+        pending[slot] = item == null || item.getType().isAir() ? null : item;
+        dirty.set(slot);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Bukkit.getScheduler().runTask(SmashEngine.getPlugin(SmashEngine.class), () -> {
+                flushScheduled = false;
+                flushChanges();
+            });
+        }
+    }
+
+    /**
+     * Returns the item a slot shows, or will show once pending changes are applied.
+     *
+     * @param slot The slot.
+     * @return The item, or null if the slot is empty.
+     */
+    public ItemStack getItem(int slot) {
+        return dirty.get(slot) ? pending[slot] : inventory.getItem(slot);
+    }
+
+    /**
+     * Writes a slot right away, dropping a pending change of it. The inventory itself is compared, so
+     * direct writes and clicks are taken into account.
+     */
+    private void writeThrough(int slot, ItemStack item) {
+        if (dirty.get(slot)) {
+            dirty.clear(slot);
+            pending[slot] = null;
+        }
+        if (item != null && item.getType().isAir()) {
+            item = null;
+        }
+        if (!Objects.equals(item, inventory.getItem(slot))) {
+            inventory.setItem(slot, item);
+        }
+    }
+
+    /**
+     * Returns the inventory of the menu, after applying pending slot changes so that writes made to it
+     * directly take precedence over them.
+     */
     @Override
     public Inventory getInventory() {
+        flushChanges();
         return inventory;
     }
 
@@ -126,27 +182,48 @@ public abstract class MenuHandler implements InventoryHolder {
     }
 
     public void border(ItemStack item) {
-        int size = inventory.getSize();
+        for (int slot : borderSlots(inventory.getSize())) {
+            writeThrough(slot, item);
+        }
+    }
+
+    static int[] borderSlots(int size) {
         int columns = 9;
+        int rows = size / columns;
+        if (rows <= 2) {
+            int[] slots = new int[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = i;
+            }
+            return slots;
+        }
 
+        int[] slots = new int[2 * columns + 2 * (rows - 2)];
+        int index = 0;
         for (int i = 0; i < columns; i++) {
-            inventory.setItem(i, item);
-            inventory.setItem(size - columns + i, item);
+            slots[index++] = i;
+            slots[index++] = size - columns + i;
         }
-
         for (int i = columns; i < size - columns; i += columns) {
-            inventory.setItem(i, item);
-            inventory.setItem(i + columns - 1, item);
+            slots[index++] = i;
+            slots[index++] = i + columns - 1;
         }
+        return slots;
     }
 
     public void fill(ItemStack item) {
         for (int i = 0; i < inventory.getSize(); i++) {
-            inventory.setItem(i, item);
+            writeThrough(i, item);
         }
     }
 
+    /**
+     * Empties every slot right away, including slots written straight to the inventory, and drops
+     * pending changes.
+     */
     public void clear() {
+        dirty.clear();
+        Arrays.fill(pending, null);
         inventory.clear();
     }
 
@@ -155,9 +232,10 @@ public abstract class MenuHandler implements InventoryHolder {
         ItemStack barrierItem = new ItemBuilder(Material.BARRIER)
                 .name("<white>\uE00F<red>" + message)
                 .build();
-        getInventory().setItem(slot, barrierItem);
+        setItem(slot, barrierItem);
+        update();
         Bukkit.getScheduler().runTaskLater(SmashEngine.getPlugin(SmashEngine.class), () -> {
-            getInventory().setItem(slot, originalItem);
+            setItem(slot, originalItem);
             update();
         }, 30L);
     }
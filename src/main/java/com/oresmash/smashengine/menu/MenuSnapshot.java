@@ -0,0 +1,204 @@
+package com.oresmash.smashengine.menu;
+
+import com.oresmash.smashengine.item.ItemTemplate;
+import com.oresmash.smashengine.utils.TextTemplate;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * The contents of a config menu, prepared ahead of time so that opening the menu only fills the inventory.
+ * <p>
+ * A snapshot can be {@link #prepare(Player, ConfigurationSection, Executor) prepared} off the main thread:
+ * the menu section is read on the calling thread, since sections are not safe to read concurrently, while
+ * texts are parsed and items are built on the worker, and placeholders known to be safe off the main
+ * thread are resolved there too. Items with any other placeholder are bound when the snapshot is applied,
+ * which still skips parsing and building. Pass the snapshot to
+ * {@link MenuHandler#MenuHandler(Player, MenuSnapshot)} on the main thread to create the menu.
+ * <p>
+ * Snapshots are immutable and may be applied more than once.
+ */
+public final class MenuSnapshot {
+    private static final Set<String> ASYNC_SAFE = ConcurrentHashMap.newKeySet();
+
+    static {
+        allowAsync("%player_name%");
+        allowAsync("%player_uuid%");
+    }
+
+    private final String title;
+    private final int rows;
+    private final Player player;
+    private final ItemStack[] items;
+    private final ItemTemplate[] deferred;
+    private final ConfigurationSection[] sections;
+
+    private MenuSnapshot(String title, int rows, Player player, ItemStack[] items, ItemTemplate[] deferred,
+                         ConfigurationSection[] sections) {
+        this.title = title;
+        this.rows = rows;
+        this.player = player;
+        this.items = items;
+        this.deferred = deferred;
+        this.sections = sections;
+    }
+
+    /**
+     * Marks a placeholder, or every placeholder of an expansion, as safe to resolve off the main thread.
+     * Only placeholders that do not touch the world, entities or inventories should be allowed, e.g.
+     * those reading cached values.
+     *
+     * @param placeholder A placeholder including its percent signs such as {@code %vault_eco_balance%},
+     *                    or an expansion identifier such as {@code vault}.
+     */
+    public static void allowAsync(String placeholder) {
+        ASYNC_SAFE.add(placeholder);
+    }
+
+    /**
+     * Prepares the contents of a config menu on the common worker pool.
+     *
+     * @param player The player the menu is for.
+     * @param configSection The menu section, as taken by {@link MenuHandler#MenuHandler(Player, ConfigurationSection)}.
+     * @return The snapshot, completed on the worker.
+     */
+    public static CompletableFuture<MenuSnapshot> prepare(Player player, ConfigurationSection configSection) {
+        return prepare(player, configSection, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Prepares the contents of a config menu on an executor. The section is read right away on the
+     * calling thread, which must therefore be the thread that changes it, usually the main thread.
+     *
+     * @param player The player the menu is for.
+     * @param configSection The menu section, as taken by {@link MenuHandler#MenuHandler(Player, ConfigurationSection)}.
+     * @param executor The executor to prepare on.
+     * @return The snapshot, completed on the executor.
+     */
+    public static CompletableFuture<MenuSnapshot> prepare(Player player, ConfigurationSection configSection, Executor executor) {
+        Layout layout = Layout.read(configSection);
+        return CompletableFuture.supplyAsync(() -> layout.build(player, false), executor);
+    }
+
+    /**
+     * Prepares the contents of a config menu right away, resolving all placeholders. Must be called on
+     * the main thread.
+     */
+    static MenuSnapshot create(Player player, ConfigurationSection configSection) {
+        return Layout.read(configSection).build(player, true);
+    }
+
+    private static boolean isAsyncSafe(String placeholder) {
+        if (ASYNC_SAFE.contains(placeholder)) return true;
+        int separator = placeholder.indexOf('_');
+        return separator > 1 && ASYNC_SAFE.contains(placeholder.substring(1, separator));
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    int getSize() {
+        return items.length;
+    }
+
+    /**
+     * Returns the item of a slot, binding deferred placeholders. Items of config contents are copies the
+     * caller may change, decorations are shared.
+     */
+    ItemStack createItem(int slot) {
+        if (deferred[slot] != null) {
+            return deferred[slot].create(player);
+        }
+        ItemStack item = items[slot];
+        return item != null && sections[slot] != null ? item.clone() : item;
+    }
+
+    /**
+     * Returns the config section of the item in a slot, or null for decorations and empty slots.
+     */
+    ConfigurationSection getSection(int slot) {
+        return sections[slot];
+    }
+
+    /**
+     * The values of a menu section, read on the thread owning the config.
+     */
+    private record Layout(String title, int rows, Material filler, Material border, List<Content> contents) {
+        static Layout read(ConfigurationSection configSection) {
+            Material filler = configSection.contains("filler") ? Material.getMaterial(configSection.getString("filler")) : null;
+            Material border = configSection.contains("border") ? Material.getMaterial(configSection.getString("border")) : null;
+            List<Content> contents = new ArrayList<>();
+            ConfigurationSection contentsSection = configSection.getConfigurationSection("contents");
+            if (contentsSection != null) {
+                for (String key : contentsSection.getKeys(false)) {
+                    ConfigurationSection itemSection = contentsSection.getConfigurationSection(key);
+                    if (itemSection == null) continue;
+
+                    int slot = Integer.parseInt(key);
+                    Material material = Material.getMaterial(itemSection.getString("material", "PAPER"));
+                    if (material == null) continue;
+
+                    // Items are compiled once per config section, preparing a menu only resolves the placeholders
+                    contents.add(new Content(slot, itemSection, ItemTemplate.detached(itemSection)));
+                }
+            }
+            return new Layout(configSection.getString("title", "Menu"), configSection.getInt("rows", 6), filler, border, contents);
+        }
+
+        MenuSnapshot build(Player player, boolean mainThread) {
+            int size = Math.min(rows, 6) * 9;
+            ItemStack[] items = new ItemStack[size];
+            ItemTemplate[] deferred = new ItemTemplate[size];
+            ConfigurationSection[] sections = new ConfigurationSection[size];
+
+            if (filler != null) {
+                Arrays.fill(items, ItemTemplate.blank(filler).create());
+            }
+
+            if (border != null) {
+                ItemStack borderItem = ItemTemplate.blank(border).create();
+                for (int slot : MenuHandler.borderSlots(size)) {
+                    items[slot] = borderItem;
+                }
+            }
+
+            UnaryOperator<String> resolver = TextTemplate.resolver(player);
+            for (Content content : contents) {
+                int slot = content.slot();
+                ItemTemplate template = content.template().get();
+                sections[slot] = content.section();
+                if (mainThread || template.getPlaceholders().stream().allMatch(MenuSnapshot::isAsyncSafe)) {
+                    items[slot] = template.create(resolver);
+                } else {
+                    items[slot] = null;
+                    deferred[slot] = template;
+                }
+            }
+            return new MenuSnapshot(title, rows, player, items, deferred, sections);
+        }
+    }
+
+    private record Content(int slot, ConfigurationSection section, Supplier<ItemTemplate> template) {
+    }
+}
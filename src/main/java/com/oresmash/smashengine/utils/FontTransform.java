@@ -0,0 +1,122 @@
+package com.oresmash.smashengine.utils;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A character-for-character font mapping, such as small caps, backed by a lookup table.
+ * <p>
+ * Transforming a text costs one array lookup per character and does not allocate when no character
+ * changes. Components are transformed in place of serializing them: the content of every text component
+ * in the tree is mapped, while styles, events and non-text components are kept as they are.
+ */
+public final class FontTransform {
+    /**
+     * Maps latin letters to their small capital forms, e.g. {@code Hello} to {@code ʜᴇʟʟᴏ}.
+     */
+    public static final FontTransform SMALL_CAPS = of(
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ",
+            "ᴀʙᴄᴅᴇꜰɢʜɪᴊᴋʟᴍɴᴏᴘǫʀꜱᴛᴜᴠᴡxʏᴢᴀʙᴄᴅᴇꜰɢʜɪᴊᴋʟᴍɴᴏᴘǫʀꜱᴛᴜᴠᴡxʏᴢ");
+
+    /**
+     * Maps digits to their superscript forms, e.g. {@code x2} to {@code x²}.
+     */
+    public static final FontTransform SUPERSCRIPT_DIGITS = of("0123456789", "⁰¹²³⁴⁵⁶⁷⁸⁹");
+
+    private final char[] table;
+
+    private FontTransform(char[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Creates a transform mapping each character of {@code from} to the character at the same index of
+     * {@code to}. Characters not in {@code from} are left as they are.
+     *
+     * @param from The characters to replace.
+     * @param to The replacements, as many as there are characters to replace.
+     * @return The transform.
+     */
+    public static FontTransform of(String from, String to) {
+        if (from.length() != to.length()) {
+            throw new IllegalArgumentException("Every character needs exactly one replacement.");
+        }
+        char highest = 0;
+        for (int i = 0; i < from.length(); i++) {
+            highest = (char) Math.max(highest, from.charAt(i));
+        }
+        char[] table = new char[highest + 1];
+        for (char c = 0; c < table.length; c++) {
+            table[c] = c;
+        }
+        for (int i = 0; i < from.length(); i++) {
+            table[from.charAt(i)] = to.charAt(i);
+        }
+        return new FontTransform(table);
+    }
+
+    /**
+     * Maps a single character.
+     *
+     * @param c The character.
+     * @return The replacement, or the character itself.
+     */
+    public char apply(char c) {
+        return c < table.length ? table[c] : c;
+    }
+
+    /**
+     * Maps every character of a text.
+     *
+     * @param text The text.
+     * @return The transformed text, the same instance if no character changed.
+     */
+    public String apply(String text) {
+        int length = text.length();
+        int first = 0;
+        while (first < length && apply(text.charAt(first)) == text.charAt(first)) {
+            first++;
+        }
+        if (first == length) return text;
+
+        char[] chars = text.toCharArray();
+        for (int i = first; i < length; i++) {
+            chars[i] = apply(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Maps the content of every text component in a component tree.
+     *
+     * @param component The component.
+     * @return The transformed component, the same instance if no character changed.
+     */
+    public Component apply(Component component) {
+        Component result = component;
+        if (component instanceof TextComponent text) {
+            String content = text.content();
+            String mapped = apply(content);
+            if (mapped != content) {
+                result = text.content(mapped);
+            }
+        }
+
+        List<Component> children = component.children();
+        List<Component> mappedChildren = null;
+        for (int i = 0; i < children.size(); i++) {
+            Component child = children.get(i);
+            Component mapped = apply(child);
+            if (mapped != child) {
+                if (mappedChildren == null) {
+                    mappedChildren = new ArrayList<>(children);
+                }
+                mappedChildren.set(i, mapped);
+            }
+        }
+        return mappedChildren == null ? result : result.children(mappedChildren);
+    }
+}
@@ -0,0 +1,236 @@
+package com.oresmash.smashengine.utils;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.JoinConfiguration;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextDecoration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pixel widths of the default Minecraft font, used to wrap lore and center chat messages.
+ * <p>
+ * Widths are looked up in a table built once, and components are measured by walking their tree, so
+ * neither measuring nor wrapping serializes a component. Characters outside the table, e.g. from other
+ * scripts or resource packs, are assumed to be as wide as an average glyph.
+ */
+public final class GlyphWidths {
+    /**
+     * The horizontal center of the chat box, in pixels.
+     */
+    public static final int CHAT_CENTER = 154;
+
+    /**
+     * A lore width that fits comfortably on screen with the default GUI scale, in pixels.
+     */
+    public static final int DEFAULT_LORE_WIDTH = 180;
+
+    private static final int DEFAULT_GLYPH = 4;
+    private static final int SPACE_ADVANCE = 4;
+    private static final byte[] GLYPHS = new byte[128];
+
+    static {
+        // Glyph widths without the pixel of spacing that follows every character
+        Arrays.fill(GLYPHS, (byte) 5);
+        glyphs("il!.,:;|'", 1);
+        glyphs("`", 2);
+        glyphs("I[] \"", 3);
+        glyphs("fkt(){}<>", 4);
+        glyphs("@", 6);
+    }
+
+    private GlyphWidths() {
+    }
+
+    private static void glyphs(String characters, int width) {
+        for (int i = 0; i < characters.length(); i++) {
+            GLYPHS[characters.charAt(i)] = (byte) width;
+        }
+    }
+
+    /**
+     * Returns how far the cursor advances when drawing a character, including the spacing after it.
+     *
+     * @param c The character.
+     * @param bold Whether the character is drawn bold, which makes every glyph but the space one pixel wider.
+     * @return The advance in pixels.
+     */
+    public static int advance(char c, boolean bold) {
+        if (c == ' ') return SPACE_ADVANCE;
+        int glyph = c < GLYPHS.length ? GLYPHS[c] : DEFAULT_GLYPH;
+        return bold ? glyph + 2 : glyph + 1;
+    }
+
+    /**
+     * Returns the width of a plain text.
+     *
+     * @param text The text.
+     * @param bold Whether the text is drawn bold.
+     * @return The width in pixels.
+     */
+    public static int width(String text, boolean bold) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += advance(text.charAt(i), bold);
+        }
+        return width;
+    }
+
+    /**
+     * Returns the width of a component, honouring bold text anywhere in its tree. Only the content of
+     * text components is measured.
+     *
+     * @param component The component.
+     * @return The width in pixels.
+     */
+    public static int width(Component component) {
+        return width(component, false);
+    }
+
+    private static int width(Component component, boolean parentBold) {
+        boolean bold = isBold(component.style(), parentBold);
+        int width = component instanceof TextComponent text ? width(text.content(), bold) : 0;
+        for (Component child : component.children()) {
+            width += width(child, bold);
+        }
+        return width;
+    }
+
+    /**
+     * Prefixes a component with spaces so that it appears centered around a position.
+     *
+     * @param component The component.
+     * @param center The position to center around, e.g. {@link #CHAT_CENTER}.
+     * @return The padded component, or the component itself if it is too wide to be centered.
+     */
+    public static Component center(Component component, int center) {
+        int padding = center - width(component) / 2;
+        if (padding < SPACE_ADVANCE) return component;
+        return Component.text(" ".repeat(padding / SPACE_ADVANCE)).append(component);
+    }
+
+    /**
+     * Breaks a component into lines no wider than a maximum width, keeping the style of every part.
+     * Lines are broken at spaces and at line breaks in the text; a single word wider than the maximum
+     * is kept on a line of its own.
+     *
+     * @param component The component to wrap.
+     * @param maxWidth The maximum width of a line in pixels.
+     * @return The lines.
+     */
+    public static List<Component> wrap(Component component, int maxWidth) {
+        LineWrapper wrapper = new LineWrapper(maxWidth);
+        wrapper.visit(component, Style.empty());
+        return wrapper.finish();
+    }
+
+    private static boolean isBold(Style style, boolean parentBold) {
+        TextDecoration.State state = style.decoration(TextDecoration.BOLD);
+        return state == TextDecoration.State.NOT_SET ? parentBold : state == TextDecoration.State.TRUE;
+    }
+
+    /**
+     * Wraps text in a single pass over its characters. Characters are collected into the current word,
+     * split into runs of the same style, and spaces are held back until it is known whether the next
+     * word still fits on the line.
+     */
+    private static final class LineWrapper {
+        private final int maxWidth;
+        private final List<Component> lines = new ArrayList<>();
+        private final List<Component> line = new ArrayList<>();
+        private final List<Component> word = new ArrayList<>();
+        private final StringBuilder run = new StringBuilder();
+        private int lineWidth;
+        private int wordWidth;
+        private Style runStyle;
+        private Style spaceStyle;
+        private int spaces;
+        private int spacesWidth;
+
+        LineWrapper(int maxWidth) {
+            this.maxWidth = maxWidth;
+        }
+
+        void visit(Component component, Style parentStyle) {
+            Style style = component.style().merge(parentStyle, Style.Merge.Strategy.IF_ABSENT_ON_TARGET);
+            if (component instanceof TextComponent text) {
+                boolean bold = style.decoration(TextDecoration.BOLD) == TextDecoration.State.TRUE;
+                String content = text.content();
+                for (int i = 0; i < content.length(); i++) {
+                    append(content.charAt(i), style, bold);
+                }
+            } else {
+                // Translations, keybinds and the like cannot be measured, they are kept as an unbreakable part
+                endRun();
+                word.add(component.children(List.of()).style(style));
+            }
+            for (Component child : component.children()) {
+                visit(child, style);
+            }
+        }
+
+        private void append(char c, Style style, boolean bold) {
+            if (c == '\n') {
+                endWord();
+                breakLine();
+                return;
+            }
+            if (c == ' ') {
+                endWord();
+                if (spaces++ == 0) {
+                    spaceStyle = style;
+                }
+                spacesWidth += SPACE_ADVANCE;
+                return;
+            }
+            if (run.length() > 0 && !style.equals(runStyle)) {
+                endRun();
+            }
+            runStyle = style;
+            run.append(c);
+            wordWidth += advance(c, bold);
+        }
+
+        private void endRun() {
+            if (run.length() == 0) return;
+            word.add(Component.text(run.toString(), runStyle));
+            run.setLength(0);
+        }
+
+        private void endWord() {
+            endRun();
+            if (word.isEmpty()) return;
+            if (!line.isEmpty() && lineWidth + spacesWidth + wordWidth > maxWidth) {
+                breakLine();
+            } else if (spaces > 0) {
+                line.add(Component.text(" ".repeat(spaces), spaceStyle));
+                lineWidth += spacesWidth;
+            }
+            line.addAll(word);
+            lineWidth += wordWidth;
+            word.clear();
+            wordWidth = 0;
+            spaces = 0;
+            spacesWidth = 0;
+        }
+
+        private void breakLine() {
+            lines.add(line.size() == 1 ? line.get(0) : Component.join(JoinConfiguration.noSeparators(), line));
+            line.clear();
+            lineWidth = 0;
+            spaces = 0;
+            spacesWidth = 0;
+        }
+
+        List<Component> finish() {
+            endWord();
+            if (!line.isEmpty() || lines.isEmpty()) {
+                breakLine();
+            }
+            return lines;
+        }
+    }
+}
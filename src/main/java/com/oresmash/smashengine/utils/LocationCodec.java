@@ -0,0 +1,233 @@
+package com.oresmash.smashengine.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts locations to and from a compact binary form, e.g. for a BLOB column, and the legacy
+ * {@code world,x,y,z} strings.
+ * <p>
+ * The binary form starts with a palette of the world names used, followed by one fixed-size record of
+ * {@value #RECORD_SIZE} bytes per location holding the palette index, the coordinates and the rotation.
+ * Decoding resolves every world once per palette rather than once per location, and records can be read
+ * straight from a buffer without parsing text.
+ * <p>
+ * Worlds are resolved through a cache shared by all codecs, so one codec must be registered as a
+ * listener to forget worlds when they are loaded or unloaded. The engine registers the codec of its
+ * {@link TextUtils}, which keeps codecs created elsewhere up to date as well.
+ */
+public final class LocationCodec implements Listener {
+    /**
+     * The size of a single location record: a world index, three coordinates and two angles.
+     */
+    public static final int RECORD_SIZE = Short.BYTES + 3 * Double.BYTES + 2 * Float.BYTES;
+
+    private static final int MAGIC = 0x534D4C43; // "SMLC"
+    private static final byte VERSION = 1;
+    private static final short NO_WORLD = -1;
+
+    private static final Map<String, Optional<World>> WORLDS = new ConcurrentHashMap<>();
+
+    /**
+     * Encodes a single location.
+     *
+     * @param location The location.
+     * @return The encoded location.
+     */
+    public byte[] encode(Location location) {
+        return encodeAll(List.of(location));
+    }
+
+    /**
+     * Decodes a single location encoded by {@link #encode(Location)}.
+     *
+     * @param bytes The encoded location.
+     * @return The location, its world is null if that world is not loaded.
+     * @throws IllegalArgumentException If the bytes do not hold exactly one location.
+     */
+    public Location decode(byte[] bytes) {
+        Location[] locations = decodeAll(ByteBuffer.wrap(bytes));
+        if (locations.length != 1) {
+            throw new IllegalArgumentException("Expected a single location but found " + locations.length);
+        }
+        return locations[0];
+    }
+
+    /**
+     * Encodes many locations at once, sharing one palette of world names.
+     *
+     * @param locations The locations.
+     * @return The encoded locations.
+     */
+    public byte[] encodeAll(Collection<? extends Location> locations) {
+        List<World> palette = new ArrayList<>(4);
+        short[] indices = new short[locations.size()];
+        int paletteBytes = 0;
+        int i = 0;
+        for (Location location : locations) {
+            World world = location.getWorld();
+            int index = world == null ? NO_WORLD : palette.indexOf(world);
+            if (index < 0 && world != null) {
+                index = palette.size();
+                palette.add(world);
+                paletteBytes += Short.BYTES + world.getName().getBytes(StandardCharsets.UTF_8).length;
+            }
+            indices[i++] = (short) index;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + 1 + Short.BYTES + paletteBytes + Integer.BYTES
+                + RECORD_SIZE * locations.size());
+        buffer.putInt(MAGIC).put(VERSION).putShort((short) palette.size());
+        for (World world : palette) {
+            byte[] name = world.getName().getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) name.length).put(name);
+        }
+        buffer.putInt(locations.size());
+        i = 0;
+        for (Location location : locations) {
+            buffer.putShort(indices[i++])
+                    .putDouble(location.getX())
+                    .putDouble(location.getY())
+                    .putDouble(location.getZ())
+                    .putFloat(location.getYaw())
+                    .putFloat(location.getPitch());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes locations encoded by {@link #encodeAll(Collection)}.
+     *
+     * @param bytes The encoded locations.
+     * @return The locations in their original order.
+     * @throws IllegalArgumentException If the bytes are not encoded locations.
+     */
+    public Location[] decodeAll(byte[] bytes) {
+        return decodeAll(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes locations encoded by {@link #encodeAll(Collection)}, starting at the position of a buffer.
+     * The position is advanced past the locations.
+     *
+     * @param buffer The buffer to read from.
+     * @return The locations in their original order, their world is null if that world is not loaded.
+     * @throws IllegalArgumentException If the buffer does not hold encoded locations.
+     */
+    public Location[] decodeAll(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES + 1 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded location");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported location encoding version " + version);
+        }
+
+        try {
+            short paletteSize = buffer.getShort();
+            if (paletteSize < 0 || buffer.remaining() < paletteSize * Short.BYTES) {
+                throw new IllegalArgumentException("Corrupt location palette size " + paletteSize);
+            }
+            World[] palette = new World[paletteSize];
+            for (int i = 0; i < palette.length; i++) {
+                short length = buffer.getShort();
+                if (length < 0 || buffer.remaining() < length) {
+                    throw new IllegalArgumentException("Corrupt location world name length " + length);
+                }
+                byte[] name = new byte[length];
+                buffer.get(name);
+                palette[i] = resolveWorld(new String(name, StandardCharsets.UTF_8));
+            }
+
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() < (long) count * RECORD_SIZE) {
+                throw new IllegalArgumentException("Truncated location data");
+            }
+            Location[] locations = new Location[count];
+            for (int i = 0; i < count; i++) {
+                short index = buffer.getShort();
+                if (index != NO_WORLD && (index < 0 || index >= palette.length)) {
+                    throw new IllegalArgumentException("Corrupt location world index " + index);
+                }
+                World world = index == NO_WORLD ? null : palette[index];
+                locations[i] = new Location(world, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(),
+                        buffer.getFloat(), buffer.getFloat());
+            }
+            return locations;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated location data", e);
+        }
+    }
+
+    /**
+     * Formats a location as a legacy {@code world,x,y,z} string.
+     *
+     * @param location The location.
+     * @return The string.
+     */
+    public String toLegacyString(Location location) {
+        return new StringBuilder(48)
+                .append(location.getWorld().getName()).append(',')
+                .append(location.getX()).append(',')
+                .append(location.getY()).append(',')
+                .append(location.getZ())
+                .toString();
+    }
+
+    /**
+     * Parses a legacy {@code world,x,y,z} string.
+     *
+     * @param text The string.
+     * @return The location, its world is null if that world is not loaded.
+     * @throws IllegalArgumentException If the string is not a location.
+     */
+    public Location fromLegacyString(String text) {
+        int first = text.indexOf(',');
+        int second = text.indexOf(',', first + 1);
+        int third = text.indexOf(',', second + 1);
+        if (first < 0 || second < 0 || third < 0) {
+            throw new IllegalArgumentException("Not a location: " + text);
+        }
+        int end = text.indexOf(',', third + 1); // Anything after the z coordinate was ignored by split as well
+        return new Location(resolveWorld(text.substring(0, first)),
+                Double.parseDouble(text.substring(first + 1, second)),
+                Double.parseDouble(text.substring(second + 1, third)),
+                Double.parseDouble(text.substring(third + 1, end < 0 ? text.length() : end)));
+    }
+
+    /**
+     * Returns a loaded world by name, looking it up in the server only once until worlds change.
+     *
+     * @param name The world name.
+     * @return The world, or null if no such world is loaded.
+     */
+    public World resolveWorld(String name) {
+        return WORLDS.computeIfAbsent(name, key -> Optional.ofNullable(Bukkit.getWorld(key))).orElse(null);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        WORLDS.remove(event.getWorld().getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        WORLDS.remove(event.getWorld().getName());
+    }
+}
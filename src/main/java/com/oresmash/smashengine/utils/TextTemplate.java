@@ -0,0 +1,205 @@
+package com.oresmash.smashengine.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import me.clip.placeholderapi.PlaceholderAPI;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextReplacementConfig;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.oresmash.smashengine.SmashEngine.textUtils;
+
+/**
+ * A MiniMessage text with PlaceholderAPI placeholders, parsed once and bound to players many times.
+ * <p>
+ * Placeholders are replaced by marker characters before the text is parsed, so binding only resolves
+ * the placeholders and splices their values into the parsed component. Values are inserted as plain
+ * text and keep the style of their surroundings. Placeholders used inside a tag, e.g.
+ * {@code <color:%player_color%>}, cannot be spliced; such templates resolve and parse the whole text on
+ * every bind, like {@code colorize(PlaceholderAPI.setPlaceholders(player, text))} would. The same
+ * happens for a bind whose values contain formatting themselves ({@code <}, {@code &} or {@code §}), so
+ * expansions returning colored values render as before.
+ */
+public final class TextTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("%[^%\\s_]+_[^%]*%");
+    private static final char FIRST_MARKER = '\uFDD0'; // Noncharacters, never part of real text
+    private static final int MAX_SLOTS = 32;
+    private static final Pattern MARKER = Pattern.compile("[\uFDD0-\uFDEF]");
+    private static final Cache<String, TextTemplate> CACHE = CacheBuilder.newBuilder().maximumSize(2_000).build();
+
+    private final String source;
+    private final List<String> slots;
+    private final Component compiled;
+
+    private TextTemplate(String source, List<String> slots, Component compiled) {
+        this.source = source;
+        this.slots = slots;
+        this.compiled = compiled;
+    }
+
+    /**
+     * Returns the compiled template of a text, compiling it on first use.
+     *
+     * @param text The MiniMessage text, possibly containing PlaceholderAPI placeholders.
+     * @return The template.
+     */
+    public static TextTemplate of(String text) {
+        try {
+            return CACHE.get(text, () -> compile(text));
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Unable to compile text template " + text, e.getCause());
+        }
+    }
+
+    /**
+     * Compiles a template without caching it.
+     *
+     * @param text The MiniMessage text, possibly containing PlaceholderAPI placeholders.
+     * @return The template.
+     */
+    public static TextTemplate compile(String text) {
+        if (MARKER.matcher(text).find()) {
+            return new TextTemplate(text, placeholders(text), null);
+        }
+
+        List<String> slots = new ArrayList<>();
+        StringBuilder marked = new StringBuilder(text.length());
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            String placeholder = matcher.group();
+            if (isInsideTag(text, matcher.start())) {
+                return new TextTemplate(text, placeholders(text), null);
+            }
+            int slot = slots.indexOf(placeholder);
+            if (slot < 0) {
+                if (slots.size() == MAX_SLOTS) {
+                    return new TextTemplate(text, placeholders(text), null);
+                }
+                slot = slots.size();
+                slots.add(placeholder);
+            }
+            marked.append(text, last, matcher.start()).append((char) (FIRST_MARKER + slot));
+            last = matcher.end();
+        }
+        marked.append(text, last, text.length());
+        return new TextTemplate(text, List.copyOf(slots), textUtils.colorizeUncached(marked.toString()));
+    }
+
+    /**
+     * Resolves the placeholders for a player and returns the resulting component.
+     *
+     * @param player The player to resolve the placeholders for, or null for none.
+     * @return The component.
+     */
+    public Component bind(OfflinePlayer player) {
+        return bind(resolver(player));
+    }
+
+    /**
+     * Returns a resolver that looks placeholders up in PlaceholderAPI, or leaves them as they are if
+     * PlaceholderAPI is not installed.
+     *
+     * @param player The player to resolve the placeholders for, or null for none.
+     * @return The resolver.
+     */
+    public static UnaryOperator<String> resolver(OfflinePlayer player) {
+        if (Bukkit.getPluginManager().getPlugin("PlaceholderAPI") == null) {
+            return UnaryOperator.identity();
+        }
+        return placeholder -> PlaceholderAPI.setPlaceholders(player, placeholder);
+    }
+
+    /**
+     * Resolves the placeholders with a custom resolver and returns the resulting component.
+     *
+     * @param resolver Returns the value of a placeholder, given including its percent signs.
+     * @return The component.
+     */
+    public Component bind(UnaryOperator<String> resolver) {
+        if (compiled == null) {
+            return resolveAndParse(resolver);
+        }
+        if (slots.isEmpty()) {
+            return compiled;
+        }
+
+        String[] values = new String[slots.size()];
+        boolean formatted = false;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = resolver.apply(slots.get(i));
+            formatted |= isFormatted(values[i]);
+        }
+        if (formatted) {
+            return resolveAndParse(placeholder -> values[slots.indexOf(placeholder)]);
+        }
+        return compiled.replaceText(TextReplacementConfig.builder()
+                .match(MARKER)
+                .replacement((match, builder) -> builder.content(values[match.group().charAt(0) - FIRST_MARKER]))
+                .build());
+    }
+
+    /**
+     * Returns the placeholders this template depends on. A bound component only needs to be refreshed
+     * when one of their values changes.
+     *
+     * @return The placeholders, including their percent signs.
+     */
+    public Set<String> getPlaceholders() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(slots));
+    }
+
+    /**
+     * Returns whether the template has no placeholders, so every bind returns the same component.
+     *
+     * @return Whether the template is static.
+     */
+    public boolean isStatic() {
+        return slots.isEmpty();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    private Component resolveAndParse(UnaryOperator<String> resolver) {
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        StringBuilder resolved = new StringBuilder(source.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(resolved, Matcher.quoteReplacement(resolver.apply(matcher.group())));
+        }
+        matcher.appendTail(resolved);
+        return textUtils.colorizeUncached(resolved.toString());
+    }
+
+    private static boolean isFormatted(String value) {
+        return value.indexOf('<') >= 0 || value.indexOf('&') >= 0 || value.indexOf('\u00A7') >= 0;
+    }
+
+    private static List<String> placeholders(String text) {
+        Set<String> placeholders = new LinkedHashSet<>();
+        Matcher matcher = PLACEHOLDER.matcher(text);
+        while (matcher.find()) {
+            placeholders.add(matcher.group());
+        }
+        return List.copyOf(placeholders);
+    }
+
+    private static boolean isInsideTag(String text, int index) {
+        int open = text.lastIndexOf('<', index);
+        if (open < 0 || (open > 0 && text.charAt(open - 1) == '\\')) return false;
+        int close = text.lastIndexOf('>', index);
+        return close < open;
+    }
+}
@@ -1,79 +1,151 @@
 package com.oresmash.smashengine.utils;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.TextDecoration;
 import net.kyori.adventure.text.minimessage.MiniMessage;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.Map;
+import java.text.FieldPosition;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class TextUtils {
+    private static final int MAX_CACHED_LENGTH = 1024;
+    private static final String[] UNITS = {"k", "M", "B", "T", "Qd", "Qu", "Sx", "Sp", "Oc", "Nn", "Dc", "Ud", "Dd", "Td", "Qt"};
+    private static final double[] UNIT_POWERS = new double[UNITS.length];
+    private static final ThreadLocal<Formatters> FORMATTERS = ThreadLocal.withInitial(Formatters::new);
 
-    private static final Map<Character, String> smallCapsMap = new HashMap<>();
     static {
-        smallCapsMap.put('a', "ᴀ");
-        smallCapsMap.put('b', "ʙ");
-        smallCapsMap.put('c', "ᴄ");
-        smallCapsMap.put('d', "ᴅ");
-        smallCapsMap.put('e', "ᴇ");
-        smallCapsMap.put('f', "ꜰ");
-        smallCapsMap.put('g', "ɢ");
-        smallCapsMap.put('h', "ʜ");
-        smallCapsMap.put('i', "ɪ");
-        smallCapsMap.put('j', "ᴊ");
-        smallCapsMap.put('k', "ᴋ");
-        smallCapsMap.put('l', "ʟ");
-        smallCapsMap.put('m', "ᴍ");
-        smallCapsMap.put('n', "ɴ");
-        smallCapsMap.put('o', "ᴏ");
-        smallCapsMap.put('p', "ᴘ");
-        smallCapsMap.put('q', "ǫ");
-        smallCapsMap.put('r', "ʀ");
-        smallCapsMap.put('s', "ꜱ");
-        smallCapsMap.put('t', "ᴛ");
-        smallCapsMap.put('u', "ᴜ");
-        smallCapsMap.put('v', "ᴠ");
-        smallCapsMap.put('w', "ᴡ");
-        smallCapsMap.put('x', "x");
-        smallCapsMap.put('y', "ʏ");
-        smallCapsMap.put('z', "ᴢ");
+        for (int i = 0; i < UNITS.length; i++) {
+            UNIT_POWERS[i] = Math.pow(10, 3 * (i + 1)); // Same values as computing the power on every call
+        }
+    }
+
+    private final Cache<String, Component> colorizeCache;
+    private final LocationCodec locationCodec = new LocationCodec();
+
+    /**
+     * Creates text utilities caching up to 10,000 colorized strings for 10 minutes after their last use.
+     */
+    public TextUtils() {
+        this(10_000L, TimeUnit.MINUTES.toMillis(10));
+    }
+
+    /**
+     * Creates text utilities with a custom colorize cache.
+     *
+     * @param cacheSize The maximum number of colorized strings to keep.
+     * @param cacheTtlMillis How long an unused colorized string is kept.
+     */
+    public TextUtils(long cacheSize, long cacheTtlMillis) {
+        this.colorizeCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterAccess(cacheTtlMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
     }
 
     public String toSmallCaps(String input) {
-        StringBuilder sb = new StringBuilder();
-        for (char c : input.toLowerCase().toCharArray()) {
-            sb.append(smallCapsMap.getOrDefault(c, String.valueOf(c)));  // Default to the original character if no mapping exists
-        }
-        return sb.toString();
+        return FontTransform.SMALL_CAPS.apply(input.toLowerCase());
+    }
+
+    /**
+     * Colorizes a text and breaks it into lines no wider than a maximum width, e.g. for item lore. The text
+     * is colorized through the cache like {@link #colorize(String)}; for texts with player names or numbers
+     * in them, use {@link #wrapUncached(String, int)}.
+     *
+     * @param text The text to colorize and wrap.
+     * @param maxWidth The maximum width of a line in pixels.
+     * @return The lines.
+     * @see GlyphWidths#wrap(Component, int)
+     */
+    public List<Component> wrap(String text, int maxWidth) {
+        return GlyphWidths.wrap(colorize(text), maxWidth);
+    }
+
+    /**
+     * Wraps a text like {@link #wrap(String, int)}, without looking it up in or adding it to the colorize cache.
+     *
+     * @param text The text to colorize and wrap.
+     * @param maxWidth The maximum width of a line in pixels.
+     * @return The lines.
+     */
+    public List<Component> wrapUncached(String text, int maxWidth) {
+        return GlyphWidths.wrap(colorizeUncached(text), maxWidth);
+    }
+
+    /**
+     * Colorizes a text and pads it to appear centered in chat. The text is colorized through the cache like
+     * {@link #colorize(String)}; for one-off texts, use {@link #centerUncached(String)}.
+     *
+     * @param text The text to colorize and center.
+     * @return The centered text component.
+     */
+    public Component center(String text) {
+        return GlyphWidths.center(colorize(text), GlyphWidths.CHAT_CENTER);
+    }
+
+    /**
+     * Centers a text like {@link #center(String)}, without looking it up in or adding it to the colorize cache.
+     *
+     * @param text The text to colorize and center.
+     * @return The centered text component.
+     */
+    public Component centerUncached(String text) {
+        return GlyphWidths.center(colorizeUncached(text), GlyphWidths.CHAT_CENTER);
     }
 
     /**
      * Colorizes the input text using MiniMessage and removes the italic decoration if it is absent.
+     * <p>
+     * Results are cached by input, as most texts are config templates colorized over and over again.
+     * Use {@link #colorizeUncached(String)} for one-off texts, e.g. with player names or numbers in them.
      *
      * @param text The text to colorize.
      * @return The colorized text component.
      */
     public Component colorize(String text) {
+        if (text.length() > MAX_CACHED_LENGTH) {
+            return colorizeUncached(text);
+        }
+        Component component = colorizeCache.getIfPresent(text);
+        if (component == null) {
+            component = colorizeUncached(text);
+            colorizeCache.put(text, component);
+        }
+        return component;
+    }
+
+    /**
+     * Colorizes the input text like {@link #colorize(String)}, without looking it up in or adding it to the cache.
+     *
+     * @param text The text to colorize.
+     * @return The colorized text component.
+     */
+    public Component colorizeUncached(String text) {
         return MiniMessage.miniMessage().deserialize(text).decorationIfAbsent(TextDecoration.ITALIC, TextDecoration.State.FALSE);
     }
 
+    /**
+     * Returns the hits, misses and evictions of the colorize cache.
+     *
+     * @return The cache statistics.
+     */
+    public CacheStats getColorizeCacheStats() {
+        return colorizeCache.stats();
+    }
+
     public String decimal(double value, int decimalPlaces) {
         if (decimalPlaces < 0) {
             throw new IllegalArgumentException("Decimal places must be non-negative.");
         }
 
-        StringBuilder pattern = new StringBuilder("#,##0");
-        if (decimalPlaces > 0) {
-            pattern.append(".");
-            pattern.append("#".repeat(decimalPlaces));
-        }
-
-        DecimalFormat df = new DecimalFormat(pattern.toString());
-        return df.format(value);
+        return FORMATTERS.get().format(value, decimalPlaces).toString();
     }
 
     public String character(double value, int decimalPlaces) {
@@ -85,14 +157,12 @@ public class TextUtils {
             return decimal(value, decimalPlaces);
         }
 
-        String[] units = {"k", "M", "B", "T", "Qd", "Qu", "Sx", "Sp", "Oc", "Nn", "Dc", "Ud", "Dd", "Td", "Qt"};
         int unitIndex = (int) (Math.log10(value) / 3) - 1;
-        unitIndex = Math.min(unitIndex, units.length - 1);
-
-        double unitValue = value / Math.pow(10, 3 * (unitIndex + 1));
-        String formattedValue = decimal(unitValue, decimalPlaces);
+        unitIndex = Math.min(unitIndex, UNITS.length - 1);
 
-        return formattedValue + units[unitIndex];
+        double unitValue = value / UNIT_POWERS[unitIndex];
+        StringBuffer buffer = FORMATTERS.get().format(unitValue, decimalPlaces);
+        return buffer.append(UNITS[unitIndex]).toString();
     }
 
     public String capitalize(String input) {
@@ -107,28 +177,29 @@ public class TextUtils {
     }
 
     public String time(Integer minutes) {
-        int weeks = minutes / 10080;
-        minutes = minutes % 10080;
-        int days = minutes / 1440;
-        minutes = minutes % 1440;
-        int hours = minutes / 60;
-        int remainingMinutes = minutes % 60;
+        int remaining = minutes;
+        int weeks = remaining / 10080;
+        remaining = remaining % 10080;
+        int days = remaining / 1440;
+        remaining = remaining % 1440;
+        int hours = remaining / 60;
+        int remainingMinutes = remaining % 60;
 
-        StringBuilder result = new StringBuilder();
+        StringBuilder result = FORMATTERS.get().builder();
         if (weeks > 0) {
-            result.append(weeks).append("w");
+            result.append(weeks).append('w');
         }
 
         if (days > 0) {
-            result.append(days).append("d");
+            result.append(days).append('d');
         }
 
         if (hours > 0) {
-            result.append(hours).append("h");
+            result.append(hours).append('h');
         }
 
         if (remainingMinutes > 0) {
-            result.append(remainingMinutes).append("m");
+            result.append(remainingMinutes).append('m');
         }
 
         return result.toString();
@@ -148,12 +219,63 @@ public class TextUtils {
     }
 
     public String locationToString(Location location) {
-        return location.getWorld().getName() + "," + location.getX() + "," + location.getY() + "," + location.getZ();
+        return locationCodec.toLegacyString(location);
     }
 
     public Location stringToLocation(String locationString) {
-        String[] parts = locationString.split(",");
-        return new Location(Bukkit.getWorld(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        return locationCodec.fromLegacyString(locationString);
     }
 
+    /**
+     * Returns the codec used for locations, which also converts them to and from a compact binary form.
+     *
+     * @return The location codec.
+     */
+    public LocationCodec getLocationCodec() {
+        return locationCodec;
+    }
+
+    /**
+     * Reusable formatting state of one thread. The decimal formats are created once per precision and
+     * format into a shared buffer, so formatting a number only allocates the resulting string.
+     */
+    private static final class Formatters {
+        private static final int CACHED_PRECISIONS = 16;
+
+        private final DecimalFormat[] decimalFormats = new DecimalFormat[CACHED_PRECISIONS];
+        private final StringBuffer buffer = new StringBuffer(32);
+        private final StringBuilder builder = new StringBuilder(32);
+        private final FieldPosition position = new FieldPosition(0);
+
+        StringBuffer format(double value, int decimalPlaces) {
+            buffer.setLength(0);
+            return decimalFormat(decimalPlaces).format(value, buffer, position);
+        }
+
+        StringBuilder builder() {
+            builder.setLength(0);
+            return builder;
+        }
+
+        private DecimalFormat decimalFormat(int decimalPlaces) {
+            if (decimalPlaces >= CACHED_PRECISIONS) {
+                return createDecimalFormat(decimalPlaces);
+            }
+            DecimalFormat format = decimalFormats[decimalPlaces];
+            if (format == null) {
+                format = createDecimalFormat(decimalPlaces);
+                decimalFormats[decimalPlaces] = format;
+            }
+            return format;
+        }
+
+        private static DecimalFormat createDecimalFormat(int decimalPlaces) {
+            StringBuilder pattern = new StringBuilder("#,##0");
+            if (decimalPlaces > 0) {
+                pattern.append(".");
+                pattern.append("#".repeat(decimalPlaces));
+            }
+            return new DecimalFormat(pattern.toString());
+        }
+    }
 }